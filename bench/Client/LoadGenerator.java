@@ -0,0 +1,487 @@
+package Client;
+
+import Server.LatencyHistogram;
+import Server.Server;
+import common.ClientInput;
+import common.FrameCompressor;
+import common.InputCodec;
+import common.SpaceMass;
+import common.Snapshot;
+import common.SnapshotCodec;
+import common.SnapshotHistory;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Headless load generator. Connects any number of scripted bots to a server
+ * using the same protocol as ClientManager: each bot asks for a connection
+ * over the multicast channel, the server connects back, and from then on the
+ * bot decodes every snapshot and steps its script, sending a ClientInput when
+ * its buttons change or as a keepalive, as ClientManager does. Every bot
+ * runs on a single selector thread, so thousands fit in one JVM. With -udp
+ * the bots also use the server's datagram channel, sending every input by
+ * datagram and throwing away snapshots that arrive after a newer one.
+ *
+ * Reports the time from the server capturing each snapshot to a bot decoding
+ * it (server and bots must share a clock, so run it on the server's machine)
+ * along with snapshot, byte and input throughput.
+ *
+ * Usage: LoadGenerator [-bots n] [-server ip] [-seconds n] [-rate n] [-seed n] [-udp]
+ * @author kjb146 and zjt14
+ */
+public class LoadGenerator {
+
+    //how often progress is reported in milliseconds
+    private static final int REPORT_PERIOD = 1000;
+    //snapshots each bot keeps, enough to cover the snapshots between
+    //keepalive acknowledgements
+    private static final int HISTORY_SIZE = 4 * InputCodec.KEEPALIVE_TICKS;
+
+    //options
+    private int botCount = 100;
+    private String serverIP;
+    private int seconds = 30;
+    private int connectRate = 100;
+    private long seed = 42;
+    private boolean udp = false;
+
+    //the bots, only touched by the selector thread
+    private final List<Bot> bots = new ArrayList<Bot>();
+    //time from capture on the server to decoding on a bot
+    private final LatencyHistogram latency = new LatencyHistogram("snapshot_latency");
+    //inflates compressed snapshots for every bot, only used by the selector
+    private final FrameCompressor inflater = new FrameCompressor(FrameCompressor.DEFAULT_LEVEL);
+    //totals over the whole run
+    private long snapshots = 0;
+    private long bytes = 0;
+    private long inputs = 0;
+    private long keyframeRequests = 0;
+    private long datagramsReceived = 0;
+    private long staleSnapshots = 0;
+    //bots whose connection has been asked for, written by the requester
+    private volatile int requested = 0;
+
+    /**
+     * Runs the load generator
+     * @param args the options, see the class comment
+     * @throws Exception if the bots cannot listen for the server
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.serverIP = InetAddress.getLocalHost().getHostAddress();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-bots")) {
+                generator.botCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-server")) {
+                generator.serverIP = args[++i];
+            } else if (args[i].equals("-seconds")) {
+                generator.seconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rate")) {
+                generator.connectRate = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                generator.seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-udp")) {
+                generator.udp = true;
+            } else {
+                System.err.println("Usage: LoadGenerator [-bots n] [-server ip] "
+                        + "[-seconds n] [-rate n] [-seed n] [-udp]");
+                System.exit(1);
+            }
+        }
+        generator.run();
+    }
+
+    /**
+     * Connects the bots and plays until the time is up, reporting as it goes
+     * @throws IOException if the bots cannot listen for the server
+     */
+    private void run() throws IOException {
+        Selector selector = Selector.open();
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.socket().setReuseAddress(true);
+        listener.socket().bind(new InetSocketAddress(Server.TCP_PORT), 4096);
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+
+        Thread requester = new Thread(connectionRequester, "ConnectionRequester");
+        requester.setDaemon(true);
+        requester.start();
+
+        System.out.println("# seconds bots snapshots/s KB/s inputs/s p50ms p99ms maxms");
+        long start = System.currentTimeMillis();
+        long end = start + seconds * 1000L;
+        long nextReport = start + REPORT_PERIOD;
+        long reportedSnapshots = 0, reportedBytes = 0, reportedInputs = 0;
+
+        while (System.currentTimeMillis() < end) {
+            selector.select(Math.max(1, nextReport - System.currentTimeMillis()));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isAcceptable()) {
+                    accept(listener, selector);
+                } else if (key.isReadable()) {
+                    Bot bot = (Bot) key.attachment();
+                    try {
+                        if (key.channel() instanceof DatagramChannel) {
+                            bot.onDatagram();
+                        } else {
+                            bot.onReadable();
+                        }
+                    } catch (IOException ex) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextReport) {
+                double elapsed = (now - nextReport + REPORT_PERIOD) / 1000.0;
+                System.out.println(String.format(Locale.ROOT, "%d %d %.0f %.1f %.0f %s %s %s",
+                        (now - start) / 1000, bots.size(),
+                        (snapshots - reportedSnapshots) / elapsed,
+                        (bytes - reportedBytes) / 1024.0 / elapsed,
+                        (inputs - reportedInputs) / elapsed,
+                        millis(latency.getQuantile(0.5)), millis(latency.getQuantile(0.99)),
+                        millis(latency.getMax())));
+                reportedSnapshots = snapshots;
+                reportedBytes = bytes;
+                reportedInputs = inputs;
+                nextReport = now + REPORT_PERIOD;
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+
+        double elapsed = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println(String.format(Locale.ROOT,
+                "bots %d/%d snapshots %d (%.0f/s) bytes %d (%.1f KB/s) inputs %d keyframeRequests %d datagrams %d stale %d",
+                bots.size(), botCount, snapshots, snapshots / elapsed,
+                bytes, bytes / 1024.0 / elapsed, inputs, keyframeRequests,
+                datagramsReceived, staleSnapshots));
+        System.out.println("latency ms p50 " + millis(latency.getQuantile(0.5))
+                + " p90 " + millis(latency.getQuantile(0.9))
+                + " p99 " + millis(latency.getQuantile(0.99))
+                + " p999 " + millis(latency.getQuantile(0.999))
+                + " max " + millis(latency.getMax()));
+    }
+
+    /**
+     * Accepts the server's connections, one bot each
+     * @param listener the channel the server connects to
+     * @param selector the selector the bots are serviced by
+     * @throws IOException if a connection cannot be set up
+     */
+    private void accept(ServerSocketChannel listener, Selector selector)
+            throws IOException {
+        SocketChannel channel;
+        while ((channel = listener.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Script script = Script.values()[bots.size() % Script.values().length];
+            Bot bot = new Bot(channel, script, new Random(seed + bots.size()));
+            bots.add(bot);
+            channel.register(selector, SelectionKey.OP_READ, bot);
+            if (udp) {
+                bot.datagrams = DatagramChannel.open();
+                bot.datagrams.configureBlocking(false);
+                bot.datagrams.connect(new InetSocketAddress(
+                        channel.socket().getInetAddress(), InputCodec.UDP_PORT));
+                bot.datagrams.register(selector, SelectionKey.OP_READ, bot);
+            }
+        }
+    }
+
+    /**
+     * @param nanos a time in nanoseconds
+     * @return the time in milliseconds, formatted for the report
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    //Asks the server for a connection for every bot, at connectRate a second
+    private final Runnable connectionRequester = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                MulticastSocket socket = new MulticastSocket();
+                byte[] msg = (Server.MSG_CONNECT_REQUEST + serverIP).getBytes();
+                DatagramPacket packet = new DatagramPacket(msg, msg.length,
+                        Server.MULTICAST_ADDRESS, Server.MULTICAST_PORT);
+                long gap = Math.max(1, 1000 / Math.max(1, connectRate));
+                while (requested < botCount) {
+                    socket.send(packet);
+                    requested++;
+                    Thread.sleep(gap);
+                }
+                socket.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            } catch (InterruptedException ex) {
+                //stopping
+            }
+        }
+    };
+
+    /**
+     * What a bot does with its controls
+     */
+    private enum Script {
+
+        //turns in circles while thrusting
+        CIRCLER {
+
+            @Override
+            void step(ClientInput input, Random random, int tick) {
+                input.setLeft(true);
+                input.setForward(tick % 4 == 0);
+            }
+        },
+        //turns back and forth firing bursts
+        GUNNER {
+
+            @Override
+            void step(ClientInput input, Random random, int tick) {
+                input.setLeft((tick / 20) % 2 == 0);
+                input.setRight((tick / 20) % 2 == 1);
+                input.setFire(tick % 10 < 3);
+            }
+        },
+        //flies about and hyperspaces every few seconds
+        JUMPER {
+
+            @Override
+            void step(ClientInput input, Random random, int tick) {
+                input.setForward(tick % 10 < 2);
+                input.setJump(tick % 60 == 0);
+            }
+        },
+        //presses keys at random, held for a while
+        RANDOM {
+
+            @Override
+            void step(ClientInput input, Random random, int tick) {
+                if (random.nextInt(10) == 0) {
+                    input.setLeft(random.nextBoolean());
+                    input.setRight(random.nextBoolean());
+                    input.setForward(random.nextInt(4) == 0);
+                    input.setFire(random.nextInt(4) == 0);
+                }
+                input.setJump(random.nextInt(400) == 0);
+            }
+        };
+
+        /**
+         * Sets the controls for one tick
+         * @param input the controls
+         * @param random the bot's random numbers
+         * @param tick the number of snapshots the bot has received
+         */
+        abstract void step(ClientInput input, Random random, int tick);
+    }
+
+    /**
+     * One headless client
+     */
+    private class Bot {
+
+        private final SocketChannel channel;
+        private final Script script;
+        private final Random random;
+        private final SnapshotHistory history = new SnapshotHistory(HISTORY_SIZE);
+        private final ClientInput input = new ClientInput();
+        private ByteBuffer inbound = ByteBuffer.allocate(4096);
+        private ByteBuffer inputFrame;
+        //the bot's datagram socket, null unless -udp, and the buffers
+        //datagrams are received into and sent from
+        private DatagramChannel datagrams;
+        private ByteBuffer inboundDatagram;
+        private ByteBuffer inputDatagram;
+        //the newest snapshot received, and the token the server sent for
+        //the bot's datagrams and whether it has arrived
+        private int newest = -1;
+        private long token;
+        private boolean hasToken = false;
+        private int tick = 0;
+        //the tick, buttons and acknowledgement of the last input sent
+        private int sentTick = 0;
+        private int sentButtons = 0;
+        private int sentAcknowledged = -1;
+
+        Bot(SocketChannel channel, Script script, Random random) {
+            this.channel = channel;
+            this.script = script;
+            this.random = random;
+        }
+
+        /**
+         * Reads whatever the server has sent and answers every whole
+         * snapshot
+         * @throws IOException if the connection fails
+         */
+        void onReadable() throws IOException {
+            int read = channel.read(inbound);
+            if (read < 0) {
+                throw new IOException("Server closed the connection");
+            }
+            bytes += read;
+            inbound.flip();
+            if (!hasToken) {
+                //the connection starts with the datagram token
+                if (inbound.remaining() < InputCodec.TOKEN_SIZE) {
+                    inbound.compact();
+                    return;
+                }
+                token = inbound.getLong();
+                hasToken = true;
+            }
+            while (inbound.remaining() >= 4) {
+                int length = inbound.getInt(inbound.position());
+                if (length < 0 || length > SnapshotCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid snapshot frame length " + length);
+                }
+                if (inbound.remaining() < 4 + length) {
+                    if (inbound.capacity() < 4 + length) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                        bigger.put(inbound);
+                        inbound = bigger;
+                        return;
+                    }
+                    break;
+                }
+                int end = inbound.position() + 4 + length;
+                int limit = inbound.limit();
+                inbound.position(inbound.position() + 4);
+                inbound.limit(end);
+                receive(inbound);
+                inbound.limit(limit);
+                inbound.position(end);
+            }
+            inbound.compact();
+        }
+
+        /**
+         * Receives every snapshot waiting on the datagram socket
+         * @throws IOException if the socket fails or a datagram is invalid
+         */
+        void onDatagram() throws IOException {
+            if (inboundDatagram == null) {
+                inboundDatagram = ByteBuffer.allocate(SnapshotCodec.MAX_DATAGRAM_SIZE);
+            }
+            while (true) {
+                inboundDatagram.clear();
+                try {
+                    if (datagrams.receive(inboundDatagram) == null) {
+                        return;
+                    }
+                } catch (PortUnreachableException ex) {
+                    continue;
+                }
+                inboundDatagram.flip();
+                bytes += inboundDatagram.remaining();
+                datagramsReceived++;
+                if (inboundDatagram.getInt() != inboundDatagram.remaining()) {
+                    throw new IOException("Truncated snapshot datagram");
+                }
+                receive(inboundDatagram);
+            }
+        }
+
+        /**
+         * Decodes a snapshot frame and answers it, unless a newer one has
+         * already arrived
+         * @param body the frame body
+         * @throws IOException if the frame is invalid or the connection fails
+         */
+        private void receive(ByteBuffer body) throws IOException {
+            int sequence = SnapshotCodec.sequenceOf(body);
+            if (newest >= 0 && sequence - newest <= 0) {
+                staleSnapshots++;
+                return;
+            }
+            Snapshot snapshot = SnapshotCodec.decode(body, history, inflater);
+            if (snapshot != null) {
+                newest = sequence;
+            }
+            answer(snapshot);
+        }
+
+        /**
+         * Records a snapshot, steps the bot's script and sends its input if
+         * it has changed or a keepalive is due
+         * @param snapshot the decoded snapshot, null if its baseline was lost
+         * @throws IOException if the connection fails
+         */
+        private void answer(Snapshot snapshot) throws IOException {
+            if (snapshot == null) {
+                keyframeRequests++;
+                input.setAcknowledged(-1);
+            } else {
+                snapshots++;
+                int age = (int) System.currentTimeMillis() - snapshot.getTimestamp();
+                latency.record(age * 1000000L);
+                input.setAcknowledged(snapshot.getSequence());
+
+                int ship = snapshot.indexOf(snapshot.getPlayerID());
+                boolean alive = ship >= 0
+                        && snapshot.getType(ship) == SpaceMass.TYPE_SPACECRAFT;
+                input.setRestart(!alive && tick % 20 == 0);
+                script.step(input, random, tick);
+            }
+            tick++;
+
+            int buttons = InputCodec.buttons(input);
+            int acked = input.getAcknowledged();
+            boolean changed = buttons != sentButtons
+                    || (acked < 0 && sentAcknowledged >= 0)
+                    || tick - sentTick >= InputCodec.KEEPALIVE_TICKS;
+            boolean datagram = datagrams != null && hasToken;
+            if (!changed && !datagram) {
+                return;
+            }
+            input.setSequence(input.getSequence() + 1);
+            input.setTick(tick);
+            if (datagram) {
+                //a full socket buffer drops the input, as a lost datagram
+                inputDatagram = InputCodec.encodeDatagram(token, input, inputDatagram);
+                datagrams.write(inputDatagram);
+            }
+            if (!changed) {
+                return;
+            }
+            sentTick = tick;
+            sentButtons = buttons;
+            sentAcknowledged = acked;
+
+            //inputs are tiny, so the socket buffer only fills if the server
+            //stops reading, finish the frame rather than corrupt the stream
+            inputFrame = InputCodec.encode(input, inputFrame);
+            while (inputFrame.hasRemaining()) {
+                channel.write(inputFrame);
+            }
+            inputs++;
+        }
+    }
+}
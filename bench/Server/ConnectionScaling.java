@@ -0,0 +1,198 @@
+package Server;
+
+import common.ClientInput;
+import common.Galaxy;
+import common.InputCodec;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load test for the server's network transport. For each player count it
+ * connects that many PlayerBindings to fake clients over loopback, four to a
+ * galaxy as GalaxyManager does, sends snapshots for a number of ticks and
+ * reports how many threads the JVM is running. With the NetworkReactor the
+ * thread count should stay flat however many players are connected.
+ *
+ * The fake clients all live on one selector thread, send a single input
+ * each and then just drain whatever they are sent.
+ * @author kjb146 and zjt14
+ */
+public class ConnectionScaling {
+
+    //player counts to test
+    private static final int[] PLAYERS = {10, 100, 500, 1000, 2000};
+    //players sharing each galaxy
+    private static final int PLAYERS_PER_GALAXY = 4;
+    //ticks of snapshots sent at each player count
+    private static final int TICKS = 40;
+    //gap between ticks in milliseconds, as Galaxy.UPDATE_PERIOD
+    private static final int TICK_PERIOD = 50;
+    //held so the quieter level set on it is not lost to garbage collection
+    private static final Logger SERVER_LOG = Logger.getLogger("Server");
+
+    /**
+     * Runs the load test
+     * @param args (unused)
+     * @throws Exception if the loopback connections fail
+     */
+    public static void main(String[] args) throws Exception {
+        SERVER_LOG.setLevel(Level.SEVERE);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println("# players threads peakThreads sendMs dropped bytesReceived");
+        for (int players : PLAYERS) {
+            run(players, threads);
+        }
+    }
+
+    /**
+     * Runs the test at one player count
+     * @param players the number of players to connect
+     * @param threads the JVM's thread bean
+     * @throws Exception if the loopback connections fail
+     */
+    private static void run(int players, ThreadMXBean threads) throws Exception {
+        FakeClients clients = new FakeClients();
+        Thread clientThread = new Thread(clients, "FakeClients");
+        clientThread.start();
+        threads.resetPeakThreadCount();
+
+        List<PlayerBinding> bindings = new ArrayList<PlayerBinding>();
+        List<Galaxy> galaxies = new ArrayList<Galaxy>();
+        List<SnapshotBroadcast> broadcasts = new ArrayList<SnapshotBroadcast>();
+        for (int i = 0; i < players; i++) {
+            if (i % PLAYERS_PER_GALAXY == 0) {
+                galaxies.add(new Galaxy());
+                broadcasts.add(new SnapshotBroadcast());
+            }
+            SocketChannel channel = SocketChannel.open(clients.getAddress());
+            PlayerBinding pb = new PlayerBinding(channel);
+            pb.setGalaxy(galaxies.get(galaxies.size() - 1));
+            bindings.add(pb);
+        }
+
+        long sendTime = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            long start = System.nanoTime();
+            for (int g = 0; g < galaxies.size(); g++) {
+                broadcasts.get(g).capture(galaxies.get(g), tick);
+            }
+            for (int i = 0; i < players; i++) {
+                bindings.get(i).sendGalaxy(broadcasts.get(i / PLAYERS_PER_GALAXY));
+            }
+            sendTime += System.nanoTime() - start;
+            Thread.sleep(TICK_PERIOD);
+        }
+
+        int live = threads.getThreadCount();
+        long dropped = 0;
+        for (PlayerBinding pb : bindings) {
+            dropped += pb.getFramesDropped();
+            pb.disconnect();
+        }
+        clients.stop();
+        clientThread.join();
+
+        System.out.println(players + " " + live + " " + threads.getPeakThreadCount()
+                + " " + String.format("%.2f", sendTime / 1e6 / TICKS)
+                + " " + dropped + " " + clients.getBytesReceived());
+    }
+
+    /**
+     * Any number of clients on a single selector thread, accepting the
+     * server's connections, sending each one input and draining snapshots
+     */
+    private static class FakeClients implements Runnable {
+
+        private final Selector selector;
+        private final ServerSocketChannel listener;
+        private final ByteBuffer drain = ByteBuffer.allocate(1 << 16);
+        private final ByteBuffer input;
+        private volatile boolean running = true;
+        private volatile long bytesReceived = 0;
+
+        FakeClients() throws IOException {
+            selector = Selector.open();
+            listener = ServerSocketChannel.open();
+            listener.socket().bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+            input = InputCodec.encode(new ClientInput(), null);
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress("127.0.0.1", listener.socket().getLocalPort());
+        }
+
+        long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = listener.accept()) != null) {
+                channel.configureBlocking(false);
+                input.rewind();
+                channel.write(input);
+                channel.register(selector, SelectionKey.OP_READ);
+            }
+        }
+
+        private void read(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                drain.clear();
+                int read = channel.read(drain);
+                if (read < 0) {
+                    key.cancel();
+                    channel.close();
+                } else {
+                    bytesReceived += read;
+                }
+            } catch (IOException ex) {
+                key.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package common;
+
+/**
+ * A single timed operation in the simulation benchmark suite. The runner
+ * calls setUp with a fresh scenario before every measured iteration and then
+ * calls run repeatedly, so an implementation may mutate the scenario freely.
+ * @author kjb146 and zjt14
+ */
+public abstract class Benchmark {
+
+    //name of the benchmark as printed by the runner
+    private final String name;
+
+    /**
+     * @param name name of the benchmark as printed by the runner
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the benchmark as printed by the runner
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the state the benchmark operates on (not timed)
+     * @param scenario a freshly built scenario
+     * @throws Exception if the state cannot be prepared
+     */
+    public abstract void setUp(Scenario scenario) throws Exception;
+
+    /**
+     * Performs one timed operation
+     * @return a value derived from the operation so it cannot be optimized
+     * away
+     * @throws Exception if the operation fails
+     */
+    public abstract long run() throws Exception;
+
+    /**
+     * @return extra information about the last operation (such as its size),
+     * or null if there is none
+     */
+    public String detail() {
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package common;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the simulation benchmark suite over every combination of entity count
+ * and mix, printing the mean time per operation. The output can be saved as
+ * a baseline and passed back in with -baseline to report the change against
+ * it.
+ *
+ * Usage: BenchmarkRunner [-quick] [-filter text] [-baseline file]
+ * @author kjb146 and zjt14
+ */
+public class BenchmarkRunner {
+
+    //entity counts every benchmark is run at
+    private static final int[] COUNTS = {100, 1000, 10000};
+    //number of untimed iterations before measuring
+    private static final int WARMUP_ITERATIONS = 5;
+    //number of timed iterations
+    private static final int MEASURED_ITERATIONS = 10;
+    //target length of each iteration in nanoseconds
+    private static final long ITERATION_NANOS = 20000000L;
+    //upper limit on operations per iteration, below the missile lifetime
+    private static final int MAX_OPS = 500;
+
+    //stops the JIT from discarding results
+    private static volatile long sink;
+
+    /**
+     * Runs the suite
+     * @param args command line options, see the class description
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String args[]) throws Exception {
+        boolean quick = false;
+        String filter = "";
+        Map<String, Double> baseline = new HashMap<String, Double>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-quick")) {
+                quick = true;
+            } else if (args[i].equals("-filter")) {
+                filter = args[++i];
+            } else if (args[i].equals("-baseline")) {
+                baseline = readBaseline(args[++i]);
+            }
+        }
+
+        int warmup = quick ? 1 : WARMUP_ITERATIONS;
+        int measured = quick ? 3 : MEASURED_ITERATIONS;
+
+        System.out.println("# benchmark count mix ns/op error(ns/op) [vs baseline] [detail]");
+        for (Benchmark benchmark : SimulationBenchmarks.all()) {
+            if (!benchmark.getName().contains(filter)) {
+                continue;
+            }
+            for (int count : COUNTS) {
+                for (Scenario.Mix mix : Scenario.Mix.values()) {
+                    double[] result = measure(benchmark, count, mix,
+                            warmup, measured);
+
+                    String key = key(benchmark.getName(), count, mix);
+                    StringBuilder line = new StringBuilder(String.format(
+                            "%s %.1f %.1f", key, result[0], result[1]));
+                    Double base = baseline.get(key);
+                    if (base != null) {
+                        line.append(String.format(" %+.1f%%",
+                                100 * (result[0] - base) / base));
+                    }
+                    if (benchmark.detail() != null) {
+                        line.append(" # ").append(benchmark.detail());
+                    }
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Times a benchmark against fresh scenarios
+     * @param benchmark the benchmark to time
+     * @param count the scenario entity count
+     * @param mix the scenario mix
+     * @param warmup number of untimed iterations
+     * @param measured number of timed iterations
+     * @return the mean and standard deviation in nanoseconds per operation
+     * @throws Exception if the benchmark fails
+     */
+    private static double[] measure(Benchmark benchmark, int count,
+            Scenario.Mix mix, int warmup, int measured) throws Exception {
+
+        //size iterations from a single operation
+        benchmark.setUp(new Scenario(count, mix));
+        long start = System.nanoTime();
+        sink += benchmark.run();
+        long single = Math.max(1, System.nanoTime() - start);
+        int ops = (int) Math.max(1, Math.min(MAX_OPS, ITERATION_NANOS / single));
+
+        double sum = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < warmup + measured; i++) {
+            benchmark.setUp(new Scenario(count, mix));
+            start = System.nanoTime();
+            for (int op = 0; op < ops; op++) {
+                sink += benchmark.run();
+            }
+            double perOp = (System.nanoTime() - start) / (double) ops;
+            if (i >= warmup) {
+                sum += perOp;
+                sumSquares += perOp * perOp;
+            }
+        }
+
+        double mean = sum / measured;
+        double variance = Math.max(0, sumSquares / measured - mean * mean);
+        return new double[]{mean, Math.sqrt(variance)};
+    }
+
+    /**
+     * @param name benchmark name
+     * @param count scenario entity count
+     * @param mix scenario mix
+     * @return the key identifying a result line
+     */
+    private static String key(String name, int count, Scenario.Mix mix) {
+        return name + " " + count + " " + mix;
+    }
+
+    /**
+     * Reads the mean times from a previous run of the suite
+     * @param file the saved output of a previous run
+     * @return the mean ns/op of each result line
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, Double> readBaseline(String file)
+            throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (line.startsWith("#") || fields.length < 4) {
+                    continue;
+                }
+                baseline.put(key(fields[0], Integer.parseInt(fields[1]),
+                        Scenario.Mix.valueOf(fields[2])),
+                        Double.valueOf(fields[3]));
+            }
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+}
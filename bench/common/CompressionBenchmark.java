@@ -0,0 +1,139 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures what compressing snapshot bodies buys and costs. Traffic is
+ * recorded from galaxies the dictionary was not trained on, and split into
+ * keyframes and deltas; each is compressed and inflated at every Deflater
+ * level, with and without the preset dictionary, reporting the compressed
+ * size as a fraction of the original and the CPU time per frame each way.
+ * Only bodies of at least FrameCompressor.MIN_SIZE bytes are counted, as
+ * smaller ones are never compressed.
+ *
+ * Usage: CompressionBenchmark [-count n] [-seed n]
+ * @author kjb146 and zjt14
+ */
+public class CompressionBenchmark {
+
+    //how long each measurement runs for, in nanoseconds
+    private static final long MEASURE_NANOS = 200000000L;
+
+    /**
+     * Runs the benchmark
+     * @param args the options, see the class comment
+     * @throws Exception if a frame does not survive compression
+     */
+    public static void main(String[] args) throws Exception {
+        int count = 1000;
+        long seed = 7;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-count")) {
+                count = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("Usage: CompressionBenchmark [-count n] [-seed n]");
+                System.exit(1);
+            }
+        }
+
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (Scenario.Mix mix : Scenario.Mix.values()) {
+            DictionaryTrainer.record(new Scenario(count, mix, seed), frames);
+        }
+        List<byte[]> keyframes = new ArrayList<byte[]>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        for (byte[] frame : frames) {
+            if (frame.length >= FrameCompressor.MIN_SIZE) {
+                (frame[0] == 0 ? keyframes : deltas).add(frame);
+            }
+        }
+
+        System.out.println("# dictionary " + FrameCompressor.getDictionarySize()
+                + " bytes, " + count + " entities");
+        System.out.println("# kind frames bytes/frame level dictionary ratio compressUs inflateUs");
+        for (int level = 1; level <= 9; level++) {
+            for (boolean dictionary : new boolean[]{false, true}) {
+                measure("keyframe", keyframes, level, dictionary);
+                measure("delta", deltas, level, dictionary);
+            }
+        }
+    }
+
+    /**
+     * Compresses and inflates a set of bodies, printing one line of results
+     * @param kind the kind of bodies, for the output
+     * @param frames the bodies
+     * @param level the Deflater level
+     * @param dictionary true to use the preset dictionary
+     * @throws Exception if a frame does not survive compression
+     */
+    private static void measure(String kind, List<byte[]> frames, int level,
+            boolean dictionary) throws Exception {
+        if (frames.isEmpty()) {
+            return;
+        }
+        FrameCompressor compressor = dictionary ? new FrameCompressor(level)
+                : new FrameCompressor(level, new byte[0]);
+        List<ByteBuffer> bodies = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> compressed = new ArrayList<ByteBuffer>();
+        long raw = 0;
+        long packed = 0;
+        for (byte[] frame : frames) {
+            ByteBuffer body = ByteBuffer.wrap(frame);
+            ByteBuffer out = ByteBuffer.allocate(frame.length);
+            if (!SnapshotCodec.compressBody(body, compressor, out)) {
+                //sent as it is
+                out = body.duplicate();
+            }
+            bodies.add(body);
+            compressed.add(out);
+            raw += frame.length;
+            packed += out.remaining();
+        }
+
+        //compressing, every frame in turn until the time is up
+        ByteBuffer scratch = ByteBuffer.allocate(SnapshotCodec.MAX_FRAME_SIZE >> 8);
+        long done = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < MEASURE_NANOS) {
+            for (ByteBuffer body : bodies) {
+                SnapshotCodec.compressBody(body, compressor, scratch);
+                done++;
+            }
+        }
+        double compressUs = (System.nanoTime() - start) / 1e3 / done;
+
+        //inflating, skipping the kind and sequence as decode does
+        done = 0;
+        long sink = 0;
+        start = System.nanoTime();
+        while (System.nanoTime() - start < MEASURE_NANOS) {
+            for (int i = 0; i < compressed.size(); i++) {
+                ByteBuffer in = compressed.get(i).duplicate();
+                if ((in.get(0) & 0x80) == 0) {
+                    continue;
+                }
+                in.position(1 + 4);
+                int length = in.getInt();
+                sink += compressor.inflate(in, length).get(length - 1);
+                if (length != bodies.get(i).remaining() - 1 - 4) {
+                    throw new IllegalStateException("Frame inflated to the wrong length");
+                }
+                done++;
+            }
+        }
+        double inflateUs = (done == 0) ? 0
+                : (System.nanoTime() - start) / 1e3 / done;
+        compressor.end();
+
+        System.out.println(String.format(Locale.ROOT, "%s %d %d %d %s %.3f %.1f %.1f%s",
+                kind, frames.size(), raw / frames.size(), level, dictionary,
+                (double) packed / raw, compressUs, inflateUs,
+                (sink == 42) ? " " : ""));
+    }
+}
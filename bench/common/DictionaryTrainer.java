@@ -0,0 +1,187 @@
+package common;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds the preset dictionary FrameCompressor primes zlib with. Snapshot
+ * traffic is recorded from reproducible galaxies of every mix, as keyframes
+ * and as deltas a few ticks apart, and the byte strings found in the most
+ * frames are packed into the dictionary, the commonest last as zlib reaches
+ * the end of its window most cheaply.
+ *
+ * Rerun it, and save the output over src/common/snapshot.dict, whenever the
+ * snapshot format changes; the server and clients must share a dictionary.
+ *
+ * Usage: DictionaryTrainer [-size n] [-out file]
+ * @author kjb146 and zjt14
+ */
+public class DictionaryTrainer {
+
+    //length of the byte strings counted
+    private static final int GRAM = 8;
+    //entity counts and seeds of the galaxies recorded
+    private static final int[] COUNTS = {100, 1000};
+    private static final long[] SEEDS = {101, 102};
+    //ticks each galaxy is recorded for, and the gap between keyframes
+    private static final int TICKS = 40;
+    private static final int KEYFRAME_TICKS = 10;
+
+    /**
+     * Records the traffic and writes the dictionary
+     * @param args the options, see the class comment
+     * @throws IOException if the dictionary cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        int size = 4096;
+        String out = "src/common/snapshot.dict";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-size")) {
+                size = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-out")) {
+                out = args[++i];
+            } else {
+                System.err.println("Usage: DictionaryTrainer [-size n] [-out file]");
+                System.exit(1);
+            }
+        }
+
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (Scenario.Mix mix : Scenario.Mix.values()) {
+            for (int count : COUNTS) {
+                for (long seed : SEEDS) {
+                    record(new Scenario(count, mix, seed), frames);
+                }
+            }
+        }
+        byte[] dictionary = train(frames, size);
+
+        OutputStream file = new FileOutputStream(out);
+        try {
+            file.write(dictionary);
+        } finally {
+            file.close();
+        }
+        System.out.println(frames.size() + " frames recorded, "
+                + dictionary.length + " byte dictionary written to " + out);
+    }
+
+    /**
+     * Records the bodies sent for a galaxy: a keyframe every few ticks and
+     * a delta against each of the last few ticks every tick
+     * @param scenario the galaxy to record
+     * @param frames the list to add the bodies to
+     */
+    static void record(Scenario scenario, List<byte[]> frames) {
+        Galaxy galaxy = scenario.getGalaxy();
+        SnapshotHistory history = new SnapshotHistory();
+        ByteBuffer body = null;
+        for (int tick = 0; tick < TICKS; tick++) {
+            galaxy.update();
+            Snapshot current = history.slot(tick);
+            SnapshotCodec.capture(galaxy, tick, 0, current);
+            if (tick % KEYFRAME_TICKS == 0) {
+                body = SnapshotCodec.encodeBody(current, null, body);
+                frames.add(copy(body));
+            }
+            for (int back = 1; back <= 3 && back <= tick; back++) {
+                body = SnapshotCodec.encodeBody(current,
+                        history.get(tick - back), body);
+                frames.add(copy(body));
+            }
+        }
+    }
+
+    /**
+     * Picks the byte strings found in the most frames, each counted once
+     * per frame, until the dictionary is full
+     * @param frames the recorded bodies
+     * @param size the most bytes in the dictionary
+     * @return the dictionary, commonest strings last
+     */
+    static byte[] train(List<byte[]> frames, int size) {
+        //each string's count of frames, and the last frame it was seen in
+        final LongObjectMap<int[]> counts = new LongObjectMap<int[]>();
+        for (int f = 0; f < frames.size(); f++) {
+            byte[] frame = frames.get(f);
+            for (int i = 0; i + GRAM <= frame.length; i++) {
+                long gram = ByteBuffer.wrap(frame, i, GRAM).getLong();
+                int[] count = counts.get(gram);
+                if (count == null) {
+                    counts.put(gram, new int[]{1, f});
+                } else if (count[1] != f) {
+                    count[0]++;
+                    count[1] = f;
+                }
+            }
+        }
+
+        List<Long> grams = new ArrayList<Long>();
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            int[] count = counts.valueAt(slot);
+            //strings in only a frame or two are not worth the room
+            if (count != null && count[0] > 2) {
+                grams.add(counts.keyAt(slot));
+            }
+        }
+        Collections.sort(grams, new Comparator<Long>() {
+
+            @Override
+            public int compare(Long a, Long b) {
+                int byCount = counts.get(b)[0] - counts.get(a)[0];
+                return (byCount != 0) ? byCount : a.compareTo(b);
+            }
+        });
+
+        //fill from the end, commonest first, skipping strings already held
+        ByteBuffer dictionary = ByteBuffer.allocate(size);
+        int start = size;
+        byte[] gram = new byte[GRAM];
+        for (int g = 0; g < grams.size() && start >= GRAM; g++) {
+            ByteBuffer.wrap(gram).putLong(grams.get(g));
+            if (indexOf(dictionary.array(), start, size, gram) < 0) {
+                start -= GRAM;
+                System.arraycopy(gram, 0, dictionary.array(), start, GRAM);
+            }
+        }
+        byte[] trained = new byte[size - start];
+        System.arraycopy(dictionary.array(), start, trained, 0, trained.length);
+        return trained;
+    }
+
+    /**
+     * @param haystack the bytes to search
+     * @param from the first index searched
+     * @param to the index after the last searched
+     * @param needle the bytes to look for
+     * @return the index of the first copy of needle, or -1 if there is none
+     */
+    private static int indexOf(byte[] haystack, int from, int to, byte[] needle) {
+        outer:
+        for (int i = from; i + needle.length <= to; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param buffer a body, ready to be read
+     * @return a copy of the body's bytes
+     */
+    static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
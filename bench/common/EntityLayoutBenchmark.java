@@ -0,0 +1,130 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.vecmath.Point2d;
+import javax.vecmath.Vector2d;
+
+/**
+ * Compares the per-step physics of the structure-of-arrays EntityStore
+ * against the same gravity and movement done over an object graph of
+ * detached SpaceMasses, at 100, 1k and 10k entities.
+ * @author kjb146 and zjt14
+ */
+public class EntityLayoutBenchmark {
+
+    //entity counts to compare at
+    private static final int[] COUNTS = {100, 1000, 10000};
+    //number of stars in each galaxy
+    private static final int STARS = 4;
+    //steps run before timing starts
+    private static final int WARMUP_STEPS = 2000;
+    //steps timed
+    private static final int MEASURED_STEPS = 2000;
+
+    /**
+     * Runs the comparison and prints the time per step of each layout
+     * @param args (unused)
+     */
+    public static void main(String args[]) {
+        System.out.println("entities  objects(us/step)  store(us/step)");
+        for (int count : COUNTS) {
+            double objects = timeObjects(build(count));
+            double store = timeStore(build(count));
+            System.out.printf("%8d  %16.2f  %14.2f%n", count, objects, store);
+        }
+    }
+
+    /**
+     * Creates a mix of stars and ships with a fixed seed
+     * @param count the total number of SpaceMasses
+     * @return the SpaceMasses, stars first
+     */
+    private static List<SpaceMass> build(int count) {
+        Random random = new Random(count);
+        List<SpaceMass> masses = new ArrayList<SpaceMass>(count);
+        for (int i = 0; i < STARS; i++) {
+            masses.add(new Star(20 + random.nextInt(50), new Point2d(
+                    random.nextInt(Galaxy.SIZE.width),
+                    random.nextInt(Galaxy.SIZE.height))));
+        }
+        for (int i = STARS; i < count; i++) {
+            Spacecraft sc = new Spacecraft();
+            sc.setLocation(new Point2d(random.nextInt(Galaxy.SIZE.width),
+                    random.nextInt(Galaxy.SIZE.height)));
+            sc.setVelocity(new Vector2d(random.nextGaussian(),
+                    random.nextGaussian()));
+            masses.add(sc);
+        }
+        return masses;
+    }
+
+    /**
+     * Times gravity and movement as virtual calls over separate objects
+     * @param masses the SpaceMasses, stars first
+     * @return microseconds per step
+     */
+    private static double timeObjects(List<SpaceMass> masses) {
+        stepObjects(masses, WARMUP_STEPS);
+        long start = System.nanoTime();
+        stepObjects(masses, MEASURED_STEPS);
+        return (System.nanoTime() - start) / 1000.0 / MEASURED_STEPS;
+    }
+
+    /**
+     * @param masses the SpaceMasses, stars first
+     * @param steps the number of steps to run
+     */
+    private static void stepObjects(List<SpaceMass> masses, int steps) {
+        for (int step = 0; step < steps; step++) {
+            for (SpaceMass sm : masses) {
+                if (sm instanceof Star) {
+                    continue;
+                }
+                double ax = 0;
+                double ay = 0;
+                for (int s = 0; s < STARS; s++) {
+                    SpaceMass star = masses.get(s);
+                    double dx = star.getX() - sm.getX();
+                    double dy = star.getY() - sm.getY();
+                    double r2 = dx * dx + dy * dy;
+                    double scale = star.getGravityConstant()
+                            / (r2 * Math.sqrt(r2));
+                    ax += dx * scale;
+                    ay += dy * scale;
+                }
+                sm.accelerate(EntityStore.PULLS_PER_SOURCE * ax,
+                        EntityStore.PULLS_PER_SOURCE * ay);
+                sm.stepTime();
+            }
+        }
+    }
+
+    /**
+     * Times gravity and movement as loops over the packed store
+     * @param masses the SpaceMasses, stars first
+     * @return microseconds per step
+     */
+    private static double timeStore(List<SpaceMass> masses) {
+        EntityStore store = new EntityStore();
+        for (SpaceMass sm : masses) {
+            store.add(sm);
+        }
+        stepStore(store, WARMUP_STEPS);
+        long start = System.nanoTime();
+        stepStore(store, MEASURED_STEPS);
+        return (System.nanoTime() - start) / 1000.0 / MEASURED_STEPS;
+    }
+
+    /**
+     * @param store the store to step
+     * @param steps the number of steps to run
+     */
+    private static void stepStore(EntityStore store, int steps) {
+        for (int step = 0; step < steps; step++) {
+            store.gravitate();
+            store.integrate();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package common;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs a galaxy as fast as the CPU allows, without a server, a clock or any
+ * sockets. Every spacecraft in the scenario is flown by a scripted stream of
+ * inputs queued exactly as PlayerBinding queues a real player's, so hours of
+ * play can be soak tested in seconds.
+ *
+ * Reports ticks per second, how much faster than real time that is, the
+ * bytes allocated per tick and a checksum of the final state. Runs with the
+ * same options end in the same state, so a changed checksum after a physics
+ * change means the simulation behaves differently, not just faster.
+ *
+ * Usage: HeadlessSimulation [-seed n] [-ticks n] [-count n] [-mix name]
+ * [-runs n]
+ * @author kjb146 and zjt14
+ */
+public class HeadlessSimulation {
+
+    //length of a tick on the server in milliseconds
+    private static final int TICK_MILLIS = 50;
+    //ticks between progress reports
+    private static final int REPORT_TICKS = 20000;
+
+    /**
+     * Runs the simulation
+     * @param args the options, see the class comment
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        int ticks = 72000;
+        int count = 1000;
+        Scenario.Mix mix = Scenario.Mix.MIXED;
+        int runs = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-ticks")) {
+                ticks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-count")) {
+                count = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-mix")) {
+                mix = Scenario.Mix.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            } else if (args[i].equals("-runs")) {
+                runs = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: HeadlessSimulation [-seed n] [-ticks n] "
+                        + "[-count n] [-mix ships|missiles|debris|mixed] [-runs n]");
+                System.exit(1);
+            }
+        }
+
+        System.out.println("# run ticks seconds ticks/s xRealTime bytes/tick MB/s entities checksum");
+        for (int run = 1; run <= runs; run++) {
+            run(run, seed, ticks, count, mix);
+        }
+    }
+
+    /**
+     * Builds a fresh scenario and runs it for the given number of ticks
+     * @param run the number of the run, for the report
+     * @param seed the seed of the layout and the scripts
+     * @param ticks the number of ticks to run
+     * @param count the number of SpaceMasses to start with
+     * @param mix the mix of SpaceMasses to start with
+     */
+    private static void run(int run, long seed, int ticks, int count,
+            Scenario.Mix mix) {
+        Galaxy galaxy = new Scenario(count, mix, seed).getGalaxy();
+        Random random = new Random(seed);
+        List<Spacecraft> ships = new ArrayList<Spacecraft>();
+        for (SpaceMass sm : galaxy.getAllSpaceMasses()) {
+            if (sm instanceof Spacecraft) {
+                ships.add((Spacecraft) sm);
+            }
+        }
+        int[] buttons = new int[ships.size()];
+        int[] sent = new int[ships.size()];
+        List<InputCommand> requests = new ArrayList<InputCommand>();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startBytes = allocatedBytes(threads);
+        long start = System.nanoTime();
+
+        for (int tick = 1; tick <= ticks; tick++) {
+            for (int i = 0; i < ships.size(); i++) {
+                buttons[i] = script(ships.get(i), buttons[i], random);
+                //players only send when their buttons change
+                if (buttons[i] != sent[i]) {
+                    galaxy.submit(new InputCommand(ships.get(i), buttons[i], galaxy.getTick()));
+                    sent[i] = buttons[i];
+                }
+            }
+            galaxy.update();
+
+            //one galaxy, so jumps and restarts land back in it
+            galaxy.drainRequests(requests);
+            for (InputCommand command : requests) {
+                Spacecraft ship = command.getShip();
+                if (ship.isDead() && command.isHeld(InputCommand.RESTART)) {
+                    ship.reset();
+                    ship.setLocation(Scenario.randomPoint(random));
+                    galaxy.addSpaceMass(ship);
+                } else if (!ship.isDead() && command.isHeld(InputCommand.JUMP)
+                        && ship.hyperspace()) {
+                    ship.setLocation(Scenario.randomPoint(random));
+                }
+            }
+            requests.clear();
+
+            if (tick % REPORT_TICKS == 0 || tick == ticks) {
+                report(run, tick, galaxy, System.nanoTime() - start,
+                        startBytes < 0 ? -1 : allocatedBytes(threads) - startBytes);
+            }
+        }
+    }
+
+    /**
+     * Chooses a ship's buttons for the next tick. Buttons are held for a
+     * while then changed at random, with the odd hyperspace jump, and a dead
+     * ship asks to restart.
+     * @param ship the ship
+     * @param buttons the buttons held last tick
+     * @param random the run's random numbers
+     * @return the buttons to hold
+     */
+    private static int script(Spacecraft ship, int buttons, Random random) {
+        if (ship.isDead()) {
+            return InputCommand.RESTART;
+        }
+        buttons &= ~(InputCommand.JUMP | InputCommand.RESTART);
+        if (random.nextInt(10) == 0) {
+            buttons = random.nextInt(InputCommand.JUMP);
+        }
+        if (random.nextInt(400) == 0) {
+            buttons |= InputCommand.JUMP;
+        }
+        return buttons;
+    }
+
+    /**
+     * Prints a line of the report
+     * @param run the number of the run
+     * @param tick the ticks run so far
+     * @param galaxy the galaxy
+     * @param nanos the time taken so far
+     * @param bytes the bytes allocated so far, negative if unknown
+     */
+    private static void report(int run, int tick, Galaxy galaxy, long nanos,
+            long bytes) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%d %d %.2f %.0f %.0f %d %.1f %d %016x",
+                run, tick, seconds, tick / seconds,
+                tick * TICK_MILLIS / 1000.0 / seconds,
+                bytes < 0 ? -1 : bytes / tick,
+                bytes < 0 ? -1 : bytes / 1e6 / seconds,
+                galaxy.getEntityCount(), checksum(galaxy)));
+    }
+
+    /**
+     * Hashes the kind, position, velocity and heading of every SpaceMass in
+     * the galaxy, in the order the galaxy holds them. Ids are left out as
+     * they differ from run to run.
+     * @param galaxy the galaxy
+     * @return the checksum
+     */
+    private static long checksum(Galaxy galaxy) {
+        long hash = 0xcbf29ce484222325L;
+        for (SpaceMass sm : galaxy.getAllSpaceMasses()) {
+            hash = mix(hash, sm.getType());
+            hash = mix(hash, Double.doubleToLongBits(sm.getX()));
+            hash = mix(hash, Double.doubleToLongBits(sm.getY()));
+            hash = mix(hash, Double.doubleToLongBits(sm.getVelocityX()));
+            hash = mix(hash, Double.doubleToLongBits(sm.getVelocityY()));
+            hash = mix(hash, Double.doubleToLongBits(sm.getHeading()));
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash the hash so far
+     * @param value the next value
+     * @return the hash with the value mixed in
+     */
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * @param threads the JVM's thread bean
+     * @return the bytes allocated by this thread, or -1 if the JVM does not
+     * count them
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
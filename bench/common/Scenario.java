@@ -0,0 +1,136 @@
+package common;
+
+import java.util.Random;
+import javax.vecmath.Point2d;
+import javax.vecmath.Vector2d;
+
+/**
+ * A reproducible galaxy used as the input to a benchmark. A scenario is
+ * described by its total entity count and the mix of kinds of SpaceMass
+ * making up that count.
+ * @author kjb146 and zjt14
+ */
+public class Scenario {
+
+    /**
+     * The proportions of each kind of SpaceMass in a scenario. Every mix also
+     * holds STARS stars.
+     */
+    public enum Mix {
+
+        SHIPS(1, 0, 0),
+        MISSILES(1, 19, 0),
+        DEBRIS(1, 0, 19),
+        MIXED(2, 6, 2);
+
+        //relative weights of each kind of SpaceMass
+        private final int ships;
+        private final int missiles;
+        private final int debris;
+
+        /**
+         * @param ships relative weight of spacecraft
+         * @param missiles relative weight of missiles
+         * @param debris relative weight of debris
+         */
+        private Mix(int ships, int missiles, int debris) {
+            this.ships = ships;
+            this.missiles = missiles;
+            this.debris = debris;
+        }
+    }
+
+    //number of stars in every scenario
+    public static final int STARS = 4;
+    //radius of every star
+    private static final int STAR_RADIUS = 40;
+
+    //the galaxy built for this scenario
+    private final Galaxy galaxy;
+    //the total number of SpaceMasses in the galaxy
+    private final int count;
+    //the mix of SpaceMasses in the galaxy
+    private final Mix mix;
+
+    /**
+     * Builds a galaxy holding the given number and mix of SpaceMasses.
+     * Scenarios built with the same arguments are identical.
+     * @param count the total number of SpaceMasses, including stars
+     * @param mix the proportions of each kind of SpaceMass
+     */
+    public Scenario(int count, Mix mix) {
+        this(count, mix, count * 31 + mix.ordinal());
+    }
+
+    /**
+     * Builds a galaxy holding the given number and mix of SpaceMasses laid
+     * out from a seed. Scenarios built with the same arguments are identical.
+     * @param count the total number of SpaceMasses, including stars
+     * @param mix the proportions of each kind of SpaceMass
+     * @param seed the seed of the layout
+     */
+    public Scenario(int count, Mix mix, long seed) {
+        this.count = count;
+        this.mix = mix;
+        Random random = new Random(seed);
+        galaxy = new Galaxy(seed);
+
+        //replace the randomly placed stars with a fixed layout
+        for (SpaceMass sm : galaxy.getAllSpaceMasses()) {
+            galaxy.removeSpaceMass(sm);
+        }
+        for (int i = 0; i < STARS; i++) {
+            galaxy.addSpaceMass(new Star(STAR_RADIUS, randomPoint(random)));
+        }
+
+        int weight = mix.ships + mix.missiles + mix.debris;
+        for (int i = STARS; i < count; i++) {
+            int pick = random.nextInt(weight);
+            Point2d location = randomPoint(random);
+            Vector2d velocity = new Vector2d(random.nextGaussian(),
+                    random.nextGaussian());
+
+            if (pick < mix.ships) {
+                Spacecraft sc = new Spacecraft();
+                sc.setLocation(location);
+                sc.setVelocity(velocity);
+                galaxy.addSpaceMass(sc);
+            } else if (pick < mix.ships + mix.missiles) {
+                galaxy.addSpaceMass(new Missile(location, velocity,
+                        random.nextDouble() * 2 * Math.PI));
+            } else {
+                galaxy.addSpaceMass(new Debris(location, velocity, i));
+            }
+        }
+    }
+
+    /**
+     * @param random the generator to use
+     * @return a random point inside the galaxy
+     */
+    static Point2d randomPoint(Random random) {
+        return new Point2d(random.nextInt(Galaxy.SIZE.width),
+                random.nextInt(Galaxy.SIZE.height));
+    }
+
+    /**
+     * @return the galaxy built for this scenario
+     */
+    public Galaxy getGalaxy() {
+        return galaxy;
+    }
+
+    /**
+     * @return the total number of SpaceMasses the scenario was built with
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mix of SpaceMasses the scenario was built with
+     */
+    public Mix getMix() {
+        return mix;
+    }
+}
@@ -0,0 +1,247 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.vecmath.Point2d;
+
+/**
+ * The benchmarks covering the simulation core: stepping a galaxy, the
+ * SpaceMass gravity law, finding spawn points, and both the Java
+ * serialization the server used to send galaxies with and the binary
+ * keyframes and deltas it sends now.
+ * @author kjb146 and zjt14
+ */
+public class SimulationBenchmarks {
+
+    /**
+     * @return every benchmark in the suite
+     */
+    public static List<Benchmark> all() {
+        return Arrays.asList(
+                new GalaxyUpdate(),
+                new Gravitate(),
+                new SafeSpawn(),
+                new SerializeGalaxy(),
+                new EncodeSnapshot(),
+                new EncodeDelta(),
+                new DecodeSnapshot());
+    }
+
+    /**
+     * One full galaxy step as run by GalaxyManager each tick
+     */
+    private static class GalaxyUpdate extends Benchmark {
+
+        private Galaxy galaxy;
+
+        GalaxyUpdate() {
+            super("galaxy.update");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            galaxy = scenario.getGalaxy();
+        }
+
+        @Override
+        public long run() {
+            galaxy.update();
+            return 0;
+        }
+    }
+
+    /**
+     * SpaceMass.gravitate between every SpaceMass and every star
+     */
+    private static class Gravitate extends Benchmark {
+
+        private final List<SpaceMass> stars = new ArrayList<SpaceMass>();
+        private final List<SpaceMass> others = new ArrayList<SpaceMass>();
+
+        Gravitate() {
+            super("spacemass.gravitate");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            stars.clear();
+            others.clear();
+            for (SpaceMass sm : scenario.getGalaxy().getAllSpaceMasses()) {
+                if (sm instanceof Star) {
+                    stars.add(sm);
+                } else {
+                    others.add(sm);
+                }
+            }
+        }
+
+        @Override
+        public long run() {
+            for (SpaceMass sm : others) {
+                for (SpaceMass star : stars) {
+                    sm.gravitate(star);
+                }
+            }
+            return others.size();
+        }
+    }
+
+    /**
+     * Finding a safe place to spawn a spacecraft
+     */
+    private static class SafeSpawn extends Benchmark {
+
+        private Galaxy galaxy;
+
+        SafeSpawn() {
+            super("galaxy.safeSpawn");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            galaxy = scenario.getGalaxy();
+        }
+
+        @Override
+        public long run() {
+            Point2d spawn = galaxy.safeSpawn(Spacecraft.SPACECRAFT_R);
+            return (long) spawn.x;
+        }
+    }
+
+    /**
+     * Java serialization of a galaxy as PlayerBinding.sendGalaxy does it
+     */
+    private static class SerializeGalaxy extends Benchmark {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private ObjectOutputStream objOut;
+        private Galaxy galaxy;
+        private int size;
+
+        SerializeGalaxy() {
+            super("galaxy.serialize");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) throws Exception {
+            galaxy = scenario.getGalaxy();
+            bytes.reset();
+            objOut = new ObjectOutputStream(bytes);
+        }
+
+        @Override
+        public long run() throws Exception {
+            bytes.reset();
+            galaxy.setPlayerID(0);
+            objOut.reset();
+            objOut.writeObject(galaxy);
+            objOut.flush();
+            size = bytes.size();
+            return size;
+        }
+
+        @Override
+        public String detail() {
+            return size + " bytes/op";
+        }
+    }
+
+    /**
+     * Capturing a snapshot and encoding it as a keyframe, as
+     * PlayerBinding.sendGalaxy does for a player joining a galaxy
+     */
+    private static class EncodeSnapshot extends Benchmark {
+
+        private final Snapshot snapshot = new Snapshot();
+        private ByteBuffer frame;
+        private Galaxy galaxy;
+
+        EncodeSnapshot() {
+            super("snapshot.encode");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            galaxy = scenario.getGalaxy();
+        }
+
+        @Override
+        public long run() {
+            SnapshotCodec.capture(galaxy, 0, 0, snapshot);
+            frame = SnapshotCodec.encode(snapshot, null, frame);
+            return frame.limit();
+        }
+
+        @Override
+        public String detail() {
+            return frame.limit() + " bytes/op";
+        }
+    }
+
+    /**
+     * Encoding a delta against the snapshot one tick before, as
+     * PlayerBinding.sendGalaxy does every tick once the client has
+     * acknowledged a snapshot
+     */
+    private static class EncodeDelta extends Benchmark {
+
+        private final Snapshot baseline = new Snapshot();
+        private final Snapshot current = new Snapshot();
+        private ByteBuffer frame;
+
+        EncodeDelta() {
+            super("snapshot.delta");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            Galaxy galaxy = scenario.getGalaxy();
+            SnapshotCodec.capture(galaxy, 0, 0, baseline);
+            galaxy.update();
+            SnapshotCodec.capture(galaxy, 1, 0, current);
+        }
+
+        @Override
+        public long run() {
+            frame = SnapshotCodec.encode(current, baseline, frame);
+            return frame.limit();
+        }
+
+        @Override
+        public String detail() {
+            return frame.limit() + " bytes/op";
+        }
+    }
+
+    /**
+     * Decoding a keyframe as ClientManager.clientLoop does it
+     */
+    private static class DecodeSnapshot extends Benchmark {
+
+        private final SnapshotHistory history = new SnapshotHistory();
+        private final Snapshot snapshot = new Snapshot();
+        private ByteBuffer frame;
+
+        DecodeSnapshot() {
+            super("snapshot.decode");
+        }
+
+        @Override
+        public void setUp(Scenario scenario) {
+            SnapshotCodec.capture(scenario.getGalaxy(), 0, 0, snapshot);
+            frame = SnapshotCodec.encode(snapshot, null, frame);
+        }
+
+        @Override
+        public long run() throws Exception {
+            //skip the frame length as readFrame does
+            frame.position(4);
+            return SnapshotCodec.decode(frame, history).size();
+        }
+    }
+}
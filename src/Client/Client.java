@@ -1,20 +1,16 @@
 package Client;
 
 import common.Debris;
-import common.Missile;
 import common.Galaxy;
+import common.LongObjectMap;
 import common.SpaceMass;
-import common.Spacecraft;
-import common.Star;
+import common.Snapshot;
 import com.threed.jpct.*;
 import com.threed.jpct.util.KeyMapper;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import javax.swing.JFrame;
 import javax.vecmath.Point2d;
 
@@ -54,11 +50,30 @@ public class Client extends JFrame {
     private Object3D missileSprite = null;
     private Object3D shieldSprite = null;
     
-    //hashmaps for linking the spacemasses to their corrosponding models
-    private Map<Integer, Object3D> spriteCache = new HashMap<Integer, Object3D>();
+    //copies of each model built up front and the most kept hidden for reuse
+    private static final int MISSILE_POOL_PREBUILT = 64;
+    private static final int MISSILE_POOL_HIGH_WATER = 256;
+    private static final int SHIP_POOL_PREBUILT = 16;
+    private static final int SHIP_POOL_HIGH_WATER = 64;
+    private static final int PLAYER_POOL_PREBUILT = 1;
+    private static final int PLAYER_POOL_HIGH_WATER = 4;
+    private static final int SHIELD_POOL_PREBUILT = 16;
+    private static final int SHIELD_POOL_HIGH_WATER = 64;
+
+    //reusable copies of the models of spacemasses that come and go
+    private SpritePool missilePool = null;
+    private SpritePool shipPool = null;
+    private SpritePool playerPool = null;
+    private SpritePool shieldPool = null;
     
-    //hashmap for linking spacecraft to their shields
-    private Map<Integer, Object3D> shieldCache = new HashMap<Integer, Object3D>();
+    //map for linking the spacemasses' ids to their corrosponding models
+    private LongObjectMap<CachedSprite> spriteCache =
+            new LongObjectMap<CachedSprite>();
+
+    //the number of the current update, sprites not seen in it are removed
+    private int generation = 0;
+    //ids of sprites found to be no longer required, reused every update
+    private long[] cacheCleaner = new long[64];
 
     /**
      * Overrides normal setVisible to ensure games canvas has focus when it
@@ -123,6 +138,16 @@ public class Client extends JFrame {
         return keyMapper;
     }
 
+    /**
+     * Gets the hits and misses of the pools the models of spacemasses that
+     * come and go are reused from
+     * @return one line of stats per pool
+     */
+    public String getPoolStats() {
+        return missilePool + "\n" + shipPool + "\n" + playerPool + "\n"
+                + shieldPool;
+    }
+
     /**
      * loads the required models and textures
      */
@@ -179,6 +204,16 @@ public class Client extends JFrame {
         missileSprite.setRotationMatrix(new Matrix());
         missileSprite.compileAndStrip();
 
+        //sets up reuse of the models of spacemasses that come and go
+        missilePool = new SpritePool("missiles", missileSprite, world,
+                MISSILE_POOL_PREBUILT, MISSILE_POOL_HIGH_WATER);
+        shipPool = new SpritePool("ships", shipSprite, world,
+                SHIP_POOL_PREBUILT, SHIP_POOL_HIGH_WATER);
+        playerPool = new SpritePool("player", playerSprite, world,
+                PLAYER_POOL_PREBUILT, PLAYER_POOL_HIGH_WATER);
+        shieldPool = new SpritePool("shields", shieldSprite, world,
+                SHIELD_POOL_PREBUILT, SHIELD_POOL_HIGH_WATER);
+
         //loads the background textures
         tm.addTexture("background0",
                 new Texture("textures" + File.separatorChar + "space0.png"));
@@ -231,60 +266,54 @@ public class Client extends JFrame {
 
     /**
      * update the display
-     * @param galaxy the galaxy to display
+     * @param snapshot the snapshot of the galaxy to display
      */
-    public void update(Galaxy galaxy) {
+    public void update(Snapshot snapshot) {
 
-        //the players ship
-        Spacecraft playersShip = null;
+        //the index of the players ship in the snapshot
+        int playersShip = -1;
 
         //sets the stars' color
-        starSprite.setAdditionalColor(galaxy.getStarColor());
+        starSprite.setAdditionalColor(snapshot.getStarColor());
 
         //sets the background
-        setBackground(galaxy.getBackNum());
+        setBackground(snapshot.getBackNum());
 
-        //used to determine which sprites are no longer required
-        Collection<Integer> cacheCleaner = 
-                new ArrayList<Integer>(spriteCache.keySet());
+        //marks the sprites seen in this update
+        generation++;
 
         //adds all the spacemasses to the buffer
-        for (SpaceMass sm : galaxy.getAllSpaceMasses()) {
-
-            //removes from cleaner as still present in galaxy
-            cacheCleaner.remove(sm.id);
+        for (int i = 0; i < snapshot.size(); i++) {
 
             //adds or moves sprites as nessecery
-            updateSprite(sm, galaxy.getPlayerID());
+            updateSprite(snapshot, i);
 
             //assigns correct ship to player
-            if (sm.id == galaxy.getPlayerID()) {
-                playersShip = ((Spacecraft) sm);
+            if (snapshot.getID(i) == snapshot.getPlayerID()) {
+                playersShip = i;
             }
 
         }
 
-        //Remove sprites from the cache which are no longer objects
-        for (Integer i : cacheCleaner) {
-            
-            //the sprite to be removed
-            Object3D tempSprite = spriteCache.get(i);
-            //its assosuated shield (if it has one)
-            Object3D tempShield = shieldCache.get(i);
-            
-            //remove shield
-            if(tempShield != null){
-                world.removeObject(tempShield);
-                shieldCache.remove(i);
+        //finds sprites in the cache which were not seen in this update
+        int stale = 0;
+        for (int slot = 0; slot < spriteCache.capacity(); slot++) {
+            CachedSprite cached = spriteCache.valueAt(slot);
+            if (cached != null && cached.seen != generation) {
+                if (stale == cacheCleaner.length) {
+                    cacheCleaner = Arrays.copyOf(cacheCleaner, stale * 2);
+                }
+                cacheCleaner[stale++] = spriteCache.keyAt(slot);
             }
+        }
 
-            //remove sprite
-            world.removeObject(tempSprite);
-            spriteCache.remove(i);
+        //Remove sprites from the cache which are no longer objects
+        for (int n = 0; n < stale; n++) {
+            removeSprite(spriteCache.remove(cacheCleaner[n]));
         }
 
         //render and display galaxy
-        displayGalaxy(playersShip);
+        displayGalaxy(snapshot, playersShip);
     }
 
     /**
@@ -312,152 +341,185 @@ public class Client extends JFrame {
                     shield.setAdditionalColor(Color.blue);
                     break;
                 default:
+                    //a reused shield may still be colored
+                    shield.setAdditionalColor(Color.black);
                     break;
             }
     }
     
     /**
      * adds a shield to a spacecraft
-     * @param sc the spacecraft to add a shield to
-     * @param parent the Spacecraft's 3d object to bind the shield to
+     * @param snapshot the snapshot holding the spacecraft
+     * @param i the index of the spacecraft to add a shield to
+     * @param cached the Spacecraft's sprite to bind the shield to
      */
-    private void addShield(Spacecraft sc, Object3D parent) {
+    private void addShield(Snapshot snapshot, int i, CachedSprite cached) {
         
         //ensure a shield is needed
-        if (sc.getShields() >= 0) {
+        if (snapshot.getShields(i) >= 0) {
             //create the shield
-            Object3D shield = shieldSprite.cloneObject();
-            shieldColor(sc.getShields(), shield);
-            shield.addParent(parent);
-            
-            //add it to the world
-            shieldCache.put(sc.id, shield);
-            world.addObject(shield);
+            Object3D shield = shieldPool.acquire();
+            shieldColor(snapshot.getShields(i), shield);
+            shield.addParent(cached.model);
+            cached.shield = shield;
         }
     }
 
     /**
      * Adds a new sprite or if one is already present updates its position
-     * @param sm the SpaceMass which needs a sprite
-     * @param galaxy the current galaxy
+     * @param snapshot the snapshot holding the SpaceMass
+     * @param i the index of the SpaceMass which needs a sprite
      */
-    private void updateSprite(SpaceMass sm, int playerID) {
+    private void updateSprite(Snapshot snapshot, int i) {
 
         //if the spacemass already exists retreive it
-        Object3D sprite = spriteCache.get(sm.id);
+        CachedSprite cached = spriteCache.get(snapshot.getID(i));
 
         //the spacemass is already present
-        if (sprite != null) {
+        if (cached != null) {
 
             //clears previous location
-            sprite.clearTranslation();
-            sprite.clearRotation();
+            cached.model.clearTranslation();
+            cached.model.clearRotation();
 
         } 
         //the spacemass isnt present so create a new instance
         else {
-            sprite = addSprite(sm, playerID);
+            cached = addSprite(snapshot, i);
         }
+        cached.seen = generation;
+        Object3D sprite = cached.model;
 
         //move to correct position and orientation
         sprite.translate(
-                new SimpleVector(sm.getLocation().x, sm.getLocation().y, 0));
+                new SimpleVector(snapshot.getX(i), snapshot.getY(i), 0));
         sprite.rotateZ(
-                -(float) sm.getHeading());
+                -snapshot.getHeading(i));
 
         //if its debris give it some 3d tumble and an explosion
-        if (sm instanceof Debris) {
-            debrisEffects(sprite, (Debris)sm);
+        if (snapshot.getType(i) == SpaceMass.TYPE_DEBRIS) {
+            debrisEffects(sprite, snapshot, i);
         }   
         
-        Object3D shield = shieldCache.get(sm.id);
-        if(shield != null){
-            shieldColor(((Spacecraft)sm).getShields(),shield);
+        if(cached.shield != null){
+            shieldColor(snapshot.getShields(i), cached.shield);
         }
     }
     
     /**
      * Adds a sprite to the world
-     * @param sm the SpaceMass whose sprite is to be added
-     * @param playerID the id of the players ship
+     * @param snapshot the snapshot holding the SpaceMass
+     * @param i the index of the SpaceMass whose sprite is to be added
      * @return sprite the sprite to add
      */
-    private Object3D addSprite(SpaceMass sm, int playerID){
+    private CachedSprite addSprite(Snapshot snapshot, int i){
             
-            Object3D sprite = null;
+            CachedSprite cached = new CachedSprite();
+            long playerID = snapshot.getPlayerID();
         
-            //create a star
-            if (sm instanceof Star) {
+            switch (snapshot.getType(i)) {
+
+                //create a star
+                case SpaceMass.TYPE_STAR:
+                    cached.model = starSprite.cloneObject();
+                    cached.model.setMesh(Primitives.getSphere(10,
+                            snapshot.getRadius(i)).getMesh());
+                    world.addObject(cached.model);
+                    break;
 
-                sprite = starSprite.cloneObject();
-                sprite.setMesh(Primitives.getSphere(10, sm.getRadius()).getMesh());
+                //create a missile
+                case SpaceMass.TYPE_MISSILE:
+                    cached.pool = missilePool;
+                    break;
 
-            } 
-            
-            //create a missile
-            else if (sm instanceof Missile) {
-                sprite = missileSprite.cloneObject();
-            } 
-            
-            //create a spaceship
-            else if (sm instanceof Spacecraft) {
-                
-                //create appropriate ship
-                if (sm.id == playerID) {
-                    sprite = playerSprite.cloneObject();
-                } else {
-                    sprite = shipSprite.cloneObject();
-                }
-                //give it a shield
-                addShield((Spacecraft) sm, sprite);  
-            } 
-            
-            //creat debris
-            else if (sm instanceof Debris) {
-                
-                //create appropriate debris
-                if (((Debris) sm).getDebrisID() == playerID) {
-                    sprite = playerSprite.cloneObject();
-                } else {
-                    sprite = shipSprite.cloneObject();
-                }
+                //create a spaceship
+                case SpaceMass.TYPE_SPACECRAFT:
+                    //create appropriate ship
+                    if (snapshot.getID(i) == playerID) {
+                        cached.pool = playerPool;
+                    } else {
+                        cached.pool = shipPool;
+                    }
+                    break;
 
+                //creat debris
+                default:
+                    //create appropriate debris
+                    if (snapshot.getDebrisID(i) == playerID) {
+                        cached.pool = playerPool;
+                    } else {
+                        cached.pool = shipPool;
+                    }
+                    break;
+            }
+            if (cached.pool != null) {
+                cached.model = cached.pool.acquire();
+            }
+
+            if (snapshot.getType(i) == SpaceMass.TYPE_SPACECRAFT) {
+                //give it a shield
+                addShield(snapshot, i, cached);
+            } else if (snapshot.getType(i) == SpaceMass.TYPE_DEBRIS) {
                 //cause debris to explode and spin
-                debrisEffects(sprite, (Debris)sm);
+                debrisEffects(cached.model, snapshot, i);
             }
             
-            //add to the cache and world
-            spriteCache.put(sm.id, sprite);
-            world.addObject(sprite);
+            //add to the cache
+            spriteCache.put(snapshot.getID(i), cached);
             
-            return sprite;
+            return cached;
+    }
+
+    /**
+     * Takes a sprite and its shield out of the world, returning pooled
+     * models for reuse
+     * @param cached the sprite to remove
+     */
+    private void removeSprite(CachedSprite cached) {
+
+        //remove shield
+        if (cached.shield != null) {
+            cached.shield.removeParent(cached.model);
+            shieldPool.release(cached.shield);
+        }
+
+        //remove sprite
+        if (cached.pool != null) {
+            cached.pool.release(cached.model);
+        } else {
+            world.removeObject(cached.model);
+        }
     }
     
     /**
      * Adds 3d tumbling and explosions to debris
      * @param sprite the debris sprite
-     * @param d the debris
+     * @param snapshot the snapshot holding the debris
+     * @param i the index of the debris
      */
-    private void debrisEffects(Object3D sprite, Debris d) {
-        sprite.rotateX(d.getTumble());
+    private void debrisEffects(Object3D sprite, Snapshot snapshot, int i) {
+        sprite.rotateX(snapshot.getTumble(i));
 
-        int frame = d.getExplosionFrame();
+        int frame = snapshot.getExplosionFrame(i);
         if (frame <= Debris.FRAMES_IN_EXPLOSION) {
-            addExplosion(frame, Debris.EXPLOSION_SIZE, d.getLocation());
+            addExplosion(frame, Debris.EXPLOSION_SIZE,
+                    new Point2d(snapshot.getX(i), snapshot.getY(i)));
         }
     }
 
     /**
      * Draws the galaxy and the player information to the screen
-     * @param playersShip the players Spacecraft (null if player is dead)
+     * @param snapshot the snapshot being displayed
+     * @param playersShip the index of the players Spacecraft (-1 if player is
+     * dead)
      */
-    private void displayGalaxy(Spacecraft playersShip) {
+    private void displayGalaxy(Snapshot snapshot, int playersShip) {
         // render the world onto the buffer:
         world.renderScene(buffer);
         world.draw(buffer);
 
         // if player dead display game over
-        if (playersShip == null) {
+        if (playersShip < 0) {
             TextureManager tm = TextureManager.getInstance();
 
             setIcon(tm.getTexture("dead"),
@@ -467,7 +529,9 @@ public class Client extends JFrame {
         } 
         //else show stats
         else {
-            drawPlayerStats(playersShip);
+            drawPlayerStats(snapshot.getShields(playersShip),
+                    snapshot.getMissilesLeft(playersShip),
+                    snapshot.getFuel(playersShip));
         }
 
         buffer.update();
@@ -579,9 +643,11 @@ public class Client extends JFrame {
 
     /**
      * draws the players stats to the screen
-     * @param player the player whose stats are being drawn
+     * @param shields the shield strength of the players ship
+     * @param missilesLeft the number of missiles left in the players ship
+     * @param fuel the fuel left in the players ship
      */
-    private void drawPlayerStats(Spacecraft player) {
+    private void drawPlayerStats(int shields, int missilesLeft, int fuel) {
 
         //get an instance of the texture manager
         TextureManager tm = TextureManager.getInstance();
@@ -596,7 +662,7 @@ public class Client extends JFrame {
                 false);
 
         //add shields counter
-        setBars(player.getShields(),
+        setBars(shields,
                 new Point2d(ICON_SIZE / 2, ICON_SIZE),
                 new Point2d(ICON_SIZE, height - ICON_SIZE * 3),
                 Color.green);
@@ -608,7 +674,7 @@ public class Client extends JFrame {
                 false);
 
         //add missiles counter
-        setBars(player.getMissilesLeft(),
+        setBars(missilesLeft,
                 new Point2d(ICON_SIZE / 20, ICON_SIZE),
                 new Point2d(ICON_SIZE, height - ICON_SIZE * 2),
                 Color.white);
@@ -620,7 +686,7 @@ public class Client extends JFrame {
                 false);
 
         //add fuel counter
-        setBars(player.getFuel() / 10,
+        setBars(fuel / 10,
                 new Point2d(ICON_SIZE / 40, ICON_SIZE),
                 new Point2d(ICON_SIZE, height - ICON_SIZE * 1),
                 Color.yellow);
@@ -655,4 +721,19 @@ public class Client extends JFrame {
                 background.getHeight(),
                 FrameBuffer.OPAQUE_BLITTING);
     }
+
+    /**
+     * The models drawn for one SpaceMass
+     */
+    private static class CachedSprite {
+
+        //the SpaceMass' model
+        Object3D model;
+        //the pool the model came from, null if it was made just for this one
+        SpritePool pool;
+        //the Spacecraft's shield, null if it has none
+        Object3D shield;
+        //the number of the last update the SpaceMass was seen in
+        int seen;
+    }
 }
@@ -1,16 +1,29 @@
 package Client;
 
 import common.ClientInput;
+import common.FrameCompressor;
 import common.Galaxy;
+import common.InputCodec;
+import common.ShipPredictor;
+import common.Snapshot;
+import common.SnapshotBuffer;
+import common.SnapshotCodec;
+import common.SnapshotHistory;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.MulticastSocket;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -32,13 +45,54 @@ public class ClientManager {
     private volatile MulticastSocket mSocket;
     private volatile ServerSocket sSocket;
     private volatile Socket socket;
-    private volatile ObjectInputStream objIn = null;
-    private volatile ObjectOutputStream objOut = null;
+    private volatile DataInputStream in = null;
+    private volatile OutputStream out = null;
+    //The socket snapshots and inputs also go through unreliably, null if
+    //only TCP is used
+    private volatile DatagramSocket datagrams;
+    private boolean useDatagrams = true;
 
     //Client graphics and controls
     private volatile Client client;
     private ClientInput clientInput = new ClientInput();
 
+    //Time between frames drawn (milliseconds), about the display's rate
+    private static final int RENDER_PERIOD = 16;
+
+    //Reused buffers the galaxy snapshots are read into and inputs written from
+    private ByteBuffer frame;
+    private ByteBuffer inputFrame;
+    private ByteBuffer inputDatagram;
+    private DatagramPacket inputPacket;
+    //Snapshots received so far, the baselines for the server's deltas
+    private final SnapshotHistory history = new SnapshotHistory();
+    //Inflates the snapshots the server compresses when bandwidth runs short
+    private final FrameCompressor inflater = new FrameCompressor(FrameCompressor.DEFAULT_LEVEL);
+    //The latest snapshots, handed from the network reader to the renderer
+    private final SnapshotBuffer snapshots =
+            new SnapshotBuffer(Galaxy.UPDATE_PERIOD);
+    //The blend of the latest snapshots drawn each frame
+    private final Snapshot renderSnapshot = new Snapshot();
+    //Where the player's own ship will be once the inputs sent are applied
+    private final ShipPredictor predictor =
+            new ShipPredictor(Galaxy.UPDATE_PERIOD);
+    //The number of the current client tick, and the sequence number, tick,
+    //buttons and acknowledgement of the last input sent
+    private int inputTick = 0;
+    private int inputSequence = 0;
+    private int sentTick = 0;
+    private int sentButtons = 0;
+    private int sentAcknowledged = -1;
+    //The sequence number of the last snapshot received, -1 for a keyframe
+    private volatile int acknowledged = -1;
+    //The sequence number of the newest snapshot received, older ones
+    //arriving after it are thrown away
+    private int newest = -1;
+    //The token the server sent to prefix this connection's datagrams with
+    private volatile long datagramToken;
+    //Snapshots thrown away for arriving after a newer one
+    private volatile long staleSnapshots = 0;
+
     /**
      * Test run target. connects to the local machine for testing purposes
      * @param args (unused)
@@ -70,6 +124,16 @@ public class ClientManager {
         }
     }
 
+    /**
+     * Chooses whether snapshots and inputs also go by datagram, so a lost
+     * packet does not hold up the snapshots behind it. Takes effect on the
+     * next connection.
+     * @param useDatagrams false to only use TCP
+     */
+    public void setUseDatagrams(boolean useDatagrams) {
+        this.useDatagrams = useDatagrams;
+    }
+
     /**
      * Forces the display to be visible. Useful when it has been minimized
      */
@@ -175,6 +239,8 @@ public class ClientManager {
             Logger.getLogger("Client").log(Level.SEVERE, "Thread got interupted");
         } finally {
             Logger.getLogger("Client").log(Level.INFO, "Killing ClientManager");
+            Logger.getLogger("Client").log(Level.INFO, "Sprite pools:\n{0}",
+                    client.getPoolStats());
             try {
                 socket.close();
             } catch (IOException ex) {
@@ -202,12 +268,17 @@ public class ClientManager {
             sSocket.setSoTimeout(timeout);
             socket = sSocket.accept();
             Logger.getLogger("Client").log(Level.INFO, "Connection found");
-            objOut = new ObjectOutputStream(socket.getOutputStream());
-            objIn = new ObjectInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
 
             Logger.getLogger("Client").log(Level.INFO, "Streams Created");
+            datagramToken = in.readLong();
 
             socket.setTcpNoDelay(true);
+            if (useDatagrams) {
+                openDatagrams();
+            }
 
             client.setVisible(true);
             clientLoop();
@@ -230,20 +301,116 @@ public class ClientManager {
     }
 
     /**
-     * Main loop run to update graphics and send keypushes to server
+     * Opens the datagram socket to the server's DatagramEndpoint, leaving
+     * only TCP to be used if it cannot be
+     */
+    private void openDatagrams() {
+        try {
+            datagrams = new DatagramSocket();
+            datagrams.connect(new InetSocketAddress(socket.getInetAddress(),
+                    InputCodec.UDP_PORT));
+        } catch (SocketException ex) {
+            Logger.getLogger("Client").log(Level.WARNING, "Could not open datagram socket, using TCP only");
+            datagrams = null;
+        }
+    }
+
+    /**
+     * Main loop run to update graphics and send keypushes to server. The
+     * snapshots are read and the keypushes sent on their own threads, so
+     * the display is drawn at its own rate and a late snapshot does not
+     * stall it.
      */
     private void clientLoop() {
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "Client snapshot reader");
+        Thread sender = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, "Client input sender");
+        Thread datagramReader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                datagramLoop();
+            }
+        }, "Client datagram reader");
+        boolean udp = datagrams != null;
+        reader.start();
+        sender.start();
+        if (udp) {
+            datagramReader.start();
+        }
+
+        renderLoop();
+
+        try {
+            reader.join();
+            sender.join();
+            if (udp) {
+                datagramReader.join();
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger("Client").log(Level.SEVERE, "Interupted waiting for network threads");
+        }
+        Logger.getLogger("Client").log(Level.INFO, "Stale snapshots thrown away: {0}",
+                staleSnapshots);
+        snapshots.clear();
+        predictor.clear();
+        acknowledged = -1;
+        sentButtons = 0;
+        sentAcknowledged = -1;
+        newest = -1;
+        datagrams = null;
+    }
+
+    /**
+     * Draws the blend of the latest snapshots at the display's rate until
+     * the socket closes
+     */
+    private void renderLoop() {
+        long nextFrame = System.nanoTime();
+        while (!socket.isClosed()) {
+            long now = System.nanoTime();
+            if (snapshots.interpolate(now, renderSnapshot)) {
+                predictor.apply(renderSnapshot, now);
+                client.update(renderSnapshot);
+            }
+
+            //wait for the next frame, skipping any that were missed
+            nextFrame += RENDER_PERIOD * 1000000L;
+            long wait = nextFrame - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            } else {
+                nextFrame = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Reads snapshots from the server and hands them to the renderer until
+     * the socket closes
+     */
+    private void readLoop() {
         try {
         
             while (!socket.isClosed()) {
 
-             //   objIn.reset();
-                Galaxy g = (Galaxy) objIn.readObject();
-                client.update(g);
-
-                objOut.reset();
-                clientInput.poll(client.getKeyMapper());
-                objOut.writeObject(clientInput);
+                frame = SnapshotCodec.readFrame(in, frame);
+                receive(frame);
             }
 
         } catch (EOFException ex) {
@@ -251,8 +418,151 @@ public class ClientManager {
         } catch (IOException ex) {
             ex.printStackTrace();
             //Do nothing. socket close is the thread end flag
-        } catch (ClassNotFoundException ex) {
-            ex.printStackTrace();
+        } finally {
+            closeSocket();
+        }
+    }
+
+    /**
+     * Reads snapshots sent by datagram until the socket closes. If the
+     * datagram socket fails, inputs stop being sent by datagram too, and the
+     * server goes back to sending snapshots over TCP.
+     */
+    private void datagramLoop() {
+        byte[] buffer = new byte[SnapshotCodec.MAX_DATAGRAM_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        ByteBuffer datagram = ByteBuffer.wrap(buffer);
+        DatagramSocket udp = datagrams;
+        try {
+
+            while (!socket.isClosed()) {
+                packet.setLength(buffer.length);
+                try {
+                    udp.receive(packet);
+                } catch (PortUnreachableException ex) {
+                    //the server is not listening for datagrams (yet)
+                    continue;
+                }
+                //a datagram holds one whole frame, length first
+                datagram.clear();
+                datagram.limit(packet.getLength());
+                if (datagram.remaining() < 4
+                        || datagram.getInt() != datagram.remaining()) {
+                    Logger.getLogger("Client").log(Level.INFO, "Ignoring truncated datagram");
+                    continue;
+                }
+                receive(datagram);
+            }
+
+        } catch (IOException ex) {
+            if (!socket.isClosed()) {
+                Logger.getLogger("Client").log(Level.WARNING, "Datagrams failed, using TCP only");
+            }
+        } finally {
+            datagrams = null;
+            udp.close();
+        }
+    }
+
+    /**
+     * Decodes a snapshot frame, from either socket, and hands it to the
+     * renderer. Frames older than the newest received are thrown away, as
+     * datagrams can arrive out of order and both sockets can be in use.
+     * @param body the frame body
+     * @throws IOException if the frame is invalid
+     */
+    private synchronized void receive(ByteBuffer body) throws IOException {
+        int sequence = SnapshotCodec.sequenceOf(body);
+        if (newest >= 0 && sequence - newest <= 0) {
+            staleSnapshots++;
+            return;
+        }
+        Snapshot snapshot = SnapshotCodec.decode(body, history, inflater);
+        if (snapshot != null) {
+            newest = sequence;
+            acknowledged = sequence;
+            snapshots.push(snapshot, System.nanoTime());
+            predictor.reconcile(snapshot);
+        } else {
+            //missing the delta's baseline, ask for a keyframe
+            acknowledged = -1;
+        }
+    }
+
+    /**
+     * Reads the keys once a server tick until the socket closes, moving the
+     * predicted ship on by them. They are only sent to the server over TCP
+     * when they change, when a keyframe is needed, or as a keepalive, but
+     * are sent by datagram every tick when datagrams are in use.
+     */
+    private void sendLoop() {
+        try {
+
+            long nextTick = System.nanoTime();
+            while (!socket.isClosed()) {
+                inputTick++;
+                clientInput.poll(client.getKeyMapper());
+                int buttons = InputCodec.buttons(clientInput);
+                int acked = acknowledged;
+                boolean changed = buttons != sentButtons
+                        || (acked < 0 && sentAcknowledged >= 0)
+                        || inputTick - sentTick >= InputCodec.KEEPALIVE_TICKS;
+                DatagramSocket udp = datagrams;
+                if (changed || udp != null) {
+                    clientInput.setAcknowledged(acked);
+                    clientInput.setSequence(++inputSequence);
+                    clientInput.setTick(inputTick);
+                }
+                if (udp != null) {
+                    inputDatagram = InputCodec.encodeDatagram(datagramToken, clientInput,
+                            inputDatagram);
+                    if (inputPacket == null) {
+                        inputPacket = new DatagramPacket(inputDatagram.array(),
+                                InputCodec.DATAGRAM_SIZE);
+                    }
+                    udp.send(inputPacket);
+                }
+                if (changed) {
+                    inputFrame = InputCodec.encode(clientInput, inputFrame);
+                    out.write(inputFrame.array(), 0, inputFrame.limit());
+                    sentTick = inputTick;
+                    sentButtons = buttons;
+                    sentAcknowledged = acked;
+                }
+                predictor.advance(inputTick,
+                        buttons & ~InputCodec.EXIT, System.nanoTime());
+
+                //wait for the next tick, skipping any that were missed
+                nextTick += Galaxy.UPDATE_PERIOD * 1000000L;
+                long wait = nextTick - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                } else {
+                    nextTick = System.nanoTime();
+                }
+            }
+
+        } catch (InterruptedException ex) {
+            //the socket is closed below
+        } catch (IOException ex) {
+            //Do nothing. socket close is the thread end flag
+        } finally {
+            closeSocket();
+        }
+    }
+
+    /**
+     * Closes the socket, ending every loop using it
+     */
+    private void closeSocket() {
+        DatagramSocket udp = datagrams;
+        if (udp != null) {
+            udp.close();
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Logger.getLogger("Client").log(Level.SEVERE, "Could not close socket");
         }
     }
 
@@ -0,0 +1,182 @@
+package Client;
+
+import com.threed.jpct.Object3D;
+import com.threed.jpct.World;
+import java.util.Arrays;
+
+/**
+ * Reuses copies of one model rather than cloning a new copy for every
+ * SpaceMass that appears and throwing it away when the SpaceMass goes.
+ * Released copies are hidden but stay in the world, so missiles, which
+ * appear and vanish constantly, cost nothing after the first few.
+ *
+ * A number of copies can be built up front, and at most a high-water mark
+ * of hidden copies are kept; copies released beyond it are taken out of the
+ * world, so a burst of SpaceMasses does not leave the world full of hidden
+ * models forever. Acquires served from the hidden copies are counted as
+ * hits and those that had to clone as misses.
+ * @author kjb146 and zjt14
+ */
+class SpritePool {
+
+    //the name of the pool, for the stats
+    private final String name;
+    //the model every copy is cloned from
+    private final Object3D prototype;
+    //the world the copies are drawn in
+    private final World world;
+    //hidden copies ready to be reused
+    private Object3D[] free;
+    private int freeCount = 0;
+    //the most hidden copies kept in the world
+    private int highWaterMark;
+
+    //acquires served by a hidden copy and acquires that had to clone
+    private long hits = 0;
+    private long misses = 0;
+    //copies taken out of the world as the pool was full
+    private long discards = 0;
+    //copies currently acquired and not released
+    private int inUse = 0;
+
+    /**
+     * Constructor
+     * @param name the name of the pool, for the stats
+     * @param prototype the model every copy is cloned from
+     * @param world the world the copies are drawn in
+     * @param prebuilt the number of hidden copies to build now
+     * @param highWaterMark the most hidden copies to keep in the world
+     */
+    SpritePool(String name, Object3D prototype, World world, int prebuilt,
+            int highWaterMark) {
+        if (prebuilt < 0 || highWaterMark < prebuilt) {
+            throw new IllegalArgumentException("Need 0 <= prebuilt ("
+                    + prebuilt + ") <= highWaterMark (" + highWaterMark + ")");
+        }
+        this.name = name;
+        this.prototype = prototype;
+        this.world = world;
+        this.highWaterMark = highWaterMark;
+        free = new Object3D[Math.max(prebuilt, 16)];
+        for (int i = 0; i < prebuilt; i++) {
+            Object3D sprite = prototype.cloneObject();
+            sprite.setVisibility(false);
+            world.addObject(sprite);
+            free[freeCount++] = sprite;
+        }
+    }
+
+    /**
+     * Gets a visible copy of the model in the world, with no translation
+     * or rotation
+     * @return the copy
+     */
+    Object3D acquire() {
+        inUse++;
+        if (freeCount == 0) {
+            misses++;
+            Object3D sprite = prototype.cloneObject();
+            world.addObject(sprite);
+            return sprite;
+        }
+        hits++;
+        Object3D sprite = free[--freeCount];
+        free[freeCount] = null;
+        sprite.clearTranslation();
+        sprite.clearRotation();
+        sprite.setVisibility(true);
+        return sprite;
+    }
+
+    /**
+     * Hides a copy until it is next acquired, or takes it out of the world
+     * if the pool already holds its high-water mark of hidden copies
+     * @param sprite a copy acquired from this pool
+     */
+    void release(Object3D sprite) {
+        inUse--;
+        if (freeCount >= highWaterMark) {
+            discards++;
+            world.removeObject(sprite);
+            return;
+        }
+        sprite.setVisibility(false);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = sprite;
+    }
+
+    /**
+     * Changes the most hidden copies kept, taking any above it out of the
+     * world
+     * @param highWaterMark the most hidden copies to keep in the world
+     */
+    void setHighWaterMark(int highWaterMark) {
+        if (highWaterMark < 0) {
+            throw new IllegalArgumentException("Negative high-water mark: "
+                    + highWaterMark);
+        }
+        this.highWaterMark = highWaterMark;
+        while (freeCount > highWaterMark) {
+            discards++;
+            world.removeObject(free[--freeCount]);
+            free[freeCount] = null;
+        }
+    }
+
+    /**
+     * @return the most hidden copies kept in the world
+     */
+    int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the number of acquires served by a hidden copy
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of acquires that had to clone a new copy
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of copies taken out of the world as the pool was
+     * full
+     */
+    long getDiscards() {
+        return discards;
+    }
+
+    /**
+     * @return the number of copies currently acquired
+     */
+    int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return the number of hidden copies ready to be reused
+     */
+    int getFree() {
+        return freeCount;
+    }
+
+    /**
+     * @return the pool's stats on one line
+     */
+    @Override
+    public String toString() {
+        long acquires = hits + misses;
+        return name + ": " + hits + " hits, " + misses + " misses ("
+                + (acquires == 0 ? 100 : hits * 100 / acquires) + "% hit), "
+                + discards + " discards, " + inUse + " in use, " + freeCount
+                + "/" + highWaterMark + " free";
+    }
+}
@@ -0,0 +1,185 @@
+package Server;
+
+import common.ClientInput;
+import common.InputCodec;
+import common.LongObjectMap;
+import common.SnapshotCodec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The server's UDP socket, an optional unreliable channel alongside each
+ * player's TCP connection. Over TCP a lost segment holds up every snapshot
+ * behind it until it is resent, though only the newest snapshot matters;
+ * over UDP a lost snapshot is simply replaced by the next one.
+ *
+ * A client opts in by sending its inputs here as datagrams, each prefixed by
+ * the random token the server sent as the first bytes of its TCP
+ * connection, which nobody else has seen. The first one tells the server
+ * where to send that player's snapshots, which then go by datagram for as
+ * long as datagrams keep arriving, unless a frame is too big for one.
+ * Joining, hyperspace and the keyframes too big for a datagram stay on TCP,
+ * and clients keep sending inputs over TCP too, so a player loses nothing if
+ * datagrams stop getting through. Datagrams are only accepted from the
+ * machine the player's TCP connection goes to, and once one has arrived
+ * only from its port.
+ *
+ * The socket never blocks: the galaxies' send tasks drop a snapshot the
+ * socket has no room for, and the receiving thread waits on a selector.
+ * @author kjb146 and zjt14
+ */
+public class DatagramEndpoint implements Runnable {
+
+    //the endpoint, started when the first player connects, null if the
+    //port could not be bound
+    private static DatagramEndpoint endpoint;
+    private static boolean started = false;
+
+    //the socket every player's datagrams go through, and the selector the
+    //receiving thread waits on it with
+    private final DatagramChannel channel;
+    private final Selector selector;
+    //the players, by their datagram token
+    private final LongObjectMap<PlayerBinding> players = new LongObjectMap<PlayerBinding>();
+    //buffers frames are gathered into to be sent, one per sending thread
+    private final ThreadLocal<ByteBuffer> outbound = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(SnapshotCodec.MAX_DATAGRAM_SIZE);
+        }
+    };
+    //datagrams that could not be matched to a player
+    private volatile long datagramsRejected = 0;
+
+    /**
+     * Gets the server's endpoint, starting it if need be
+     * @return the endpoint, or null if datagrams cannot be used
+     */
+    static synchronized DatagramEndpoint getEndpoint() {
+        if (!started) {
+            started = true;
+            try {
+                endpoint = new DatagramEndpoint(InputCodec.UDP_PORT);
+            } catch (IOException ex) {
+                Logger.getLogger("Server").log(Level.WARNING,
+                        "Could not bind UDP port {0}, snapshots will only be sent over TCP",
+                        InputCodec.UDP_PORT);
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Private constructor, the endpoint is only created by getEndpoint()
+     * @param port the port to receive datagrams on
+     * @throws IOException if the port cannot be bound
+     */
+    private DatagramEndpoint(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        Thread thread = new Thread(this, "DatagramEndpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts accepting datagrams for a player
+     * @param pb the player
+     */
+    void register(PlayerBinding pb) {
+        synchronized (players) {
+            players.put(pb.getDatagramToken(), pb);
+        }
+    }
+
+    /**
+     * Stops accepting datagrams for a player
+     * @param pb the player
+     */
+    void unregister(PlayerBinding pb) {
+        synchronized (players) {
+            players.remove(pb.getDatagramToken());
+        }
+    }
+
+    /**
+     * Sends a frame as one datagram. Never blocks; a frame the socket has
+     * no room for is dropped, as a lost datagram would be.
+     * @param frame the buffers holding the frame, left unchanged
+     * @param to the address to send it to
+     * @return false if the frame was dropped
+     * @throws IOException if the socket fails
+     */
+    boolean send(ByteBuffer[] frame, SocketAddress to) throws IOException {
+        ByteBuffer datagram = outbound.get();
+        datagram.clear();
+        for (ByteBuffer part : frame) {
+            int position = part.position();
+            datagram.put(part);
+            part.position(position);
+        }
+        datagram.flip();
+        return channel.send(datagram, to) > 0;
+    }
+
+    /**
+     * Receives inputs until the socket is closed, handing each to the
+     * player it is from
+     */
+    @Override
+    public void run() {
+        //a byte more than a datagram should hold, to notice longer ones
+        ByteBuffer inbound = ByteBuffer.allocate(InputCodec.DATAGRAM_SIZE + 1);
+        ClientInput input = new ClientInput();
+        while (channel.isOpen()) {
+            try {
+                inbound.clear();
+                SocketAddress from = channel.receive(inbound);
+                if (from == null) {
+                    //read everything waiting, sleep until more arrives
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    continue;
+                }
+                inbound.flip();
+                if (inbound.remaining() != InputCodec.DATAGRAM_SIZE) {
+                    datagramsRejected++;
+                    continue;
+                }
+                PlayerBinding pb;
+                synchronized (players) {
+                    pb = players.get(inbound.getLong());
+                }
+                if (pb == null || !pb.acceptsDatagramsFrom(from)
+                        || !InputCodec.decode(inbound, input)) {
+                    datagramsRejected++;
+                    continue;
+                }
+                pb.onDatagram(input, from);
+            } catch (IOException ex) {
+                if (channel.isOpen()) {
+                    Logger.getLogger("Server").log(Level.INFO, "Bad datagram: {0}", ex.getMessage());
+                    datagramsRejected++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of datagrams that could not be matched to a player
+     */
+    long getDatagramsRejected() {
+        return datagramsRejected;
+    }
+}
@@ -0,0 +1,143 @@
+package Server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reuses the off-heap buffers outbound frames are encoded into, rather than
+ * allocating new ones every tick. Buffers come in powers of two from
+ * MIN_SIZE to MAX_SIZE, and each size keeps free buffers up to a cap in
+ * bytes, so small frames are pooled by the thousand but a burst of large
+ * keyframes leaves only a few behind. Frames returned beyond the cap, and
+ * frames bigger than MAX_SIZE, are dropped for the garbage collector to
+ * free. The pool never holds more than getMaxFreeBytes().
+ *
+ * Direct buffers are written to a socket without being copied into a
+ * temporary direct buffer first, as heap buffers are. Can be used from any
+ * thread.
+ * @author kjb146 and zjt14
+ */
+class FramePool {
+
+    //the smallest and largest pooled buffers
+    static final int MIN_SIZE = 1 << 10;
+    static final int MAX_SIZE = 1 << 22;
+    //log2 of MIN_SIZE, the index of the smallest size class
+    private static final int MIN_SHIFT = 10;
+
+    //free frames of each size, smallest first, each array as long as the
+    //most free frames kept of its size
+    private final SharedFrame[][] free;
+    private final int[] freeCount;
+    //bytes held in free frames
+    private long freeBytes = 0;
+
+    //acquires served by a free frame and acquires that had to allocate
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    /**
+     * Constructor
+     * @param classBytes the most bytes of free frames to keep of each size,
+     * at least one frame's worth
+     */
+    FramePool(int classBytes) {
+        if (classBytes < 0) {
+            throw new IllegalArgumentException("Negative pool size: "
+                    + classBytes);
+        }
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+        free = new SharedFrame[classes][];
+        freeCount = new int[classes];
+        for (int c = 0; c < classes; c++) {
+            free[c] = new SharedFrame[Math.max(1, classBytes / (MIN_SIZE << c))];
+        }
+    }
+
+    /**
+     * Gets an empty frame holding one reference, for its owner to release
+     * @param size the most bytes that will be put in the frame
+     * @return the frame, its buffer cleared
+     */
+    SharedFrame acquire(int size) {
+        int c = sizeClass(size);
+        if (c >= free.length) {
+            synchronized (this) {
+                misses++;
+            }
+            return new SharedFrame(null, ByteBuffer.allocateDirect(size));
+        }
+        SharedFrame frame = null;
+        synchronized (this) {
+            if (freeCount[c] > 0) {
+                hits++;
+                frame = free[c][--freeCount[c]];
+                free[c][freeCount[c]] = null;
+                freeBytes -= MIN_SIZE << c;
+            } else {
+                misses++;
+            }
+        }
+        if (frame != null) {
+            frame.reuse();
+            return frame;
+        }
+        return new SharedFrame(this, ByteBuffer.allocateDirect(MIN_SIZE << c));
+    }
+
+    /**
+     * Takes back a frame nobody holds a reference to any more, unless its
+     * size's cap is reached, in which case it is dropped. Only called by
+     * SharedFrame.
+     * @param frame the frame
+     */
+    synchronized void recycle(SharedFrame frame) {
+        int c = sizeClass(frame.getBuffer().capacity());
+        if (freeCount[c] < free[c].length) {
+            free[c][freeCount[c]++] = frame;
+            freeBytes += MIN_SIZE << c;
+        }
+    }
+
+    /**
+     * @param size a number of bytes
+     * @return the index of the smallest size class holding them
+     */
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return the bytes held in free frames
+     */
+    synchronized long getFreeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * @return the most bytes the free frames can ever take
+     */
+    long getMaxFreeBytes() {
+        long max = 0;
+        for (int c = 0; c < free.length; c++) {
+            max += (long) free[c].length * (MIN_SIZE << c);
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of acquires served by a free frame
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of acquires that had to allocate a new buffer
+     */
+    long getMisses() {
+        return misses;
+    }
+}
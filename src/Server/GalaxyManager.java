@@ -1,16 +1,18 @@
 package Server;
 
 import common.Galaxy;
+import common.InputCommand;
+import common.XorShiftRandom;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import Server.PlayerBinding.HyperspaceListener;
-import java.util.Random;
 
 /**
  * GalaxyManager
@@ -23,14 +25,41 @@ import java.util.Random;
 public class GalaxyManager implements HyperspaceListener {
 
     //"Constants" for this manager
-    private static final int UPDATE_PERIOD = 50; //update period in milliseconds (Period = 1000/frequency)
     private static final int MAX_CLIENTS_PER_GALAXY = 4; //Upper limit on clients per single galaxy
-    private final Timer frameClock = new Timer();
-    private final Galaxy galaxy = new Galaxy();
+    private final Galaxy galaxy = new Galaxy(nextSeed());
     private final Collection<PlayerBinding> players = Collections.synchronizedList(new ArrayList<PlayerBinding>());
+    //Number identifying this galaxy in the metrics
+    private static final AtomicInteger nextNumber = new AtomicInteger();
+    private final int number = nextNumber.incrementAndGet();
+    //Time taken by the last and slowest galaxy updates in nanoseconds
+    private volatile long lastUpdateNanos = 0;
+    private volatile long maxUpdateNanos = 0;
+    //Jumps and restarts handed back by the galaxy, only used by resolveRequests
+    private final List<InputCommand> requests = new ArrayList<InputCommand>();
 // <editor-fold defaultstate="collapsed" desc="Static Methods for Galaxy Management">
     //All galaxies in game
     private static final Collection<GalaxyManager> managers = Collections.synchronizedList(new ArrayList<GalaxyManager>());
+    //Seeds new galaxies and picks hyperspace destinations, guarded by itself
+    private static final XorShiftRandom random = new XorShiftRandom();
+
+    /**
+     * @return a seed for a new galaxy
+     */
+    private static long nextSeed() {
+        synchronized (random) {
+            return random.nextLong();
+        }
+    }
+
+    /**
+     * @param bound the upper limit
+     * @return a random number from 0 (inclusive) to bound (exclusive)
+     */
+    private static int nextInt(int bound) {
+        synchronized (random) {
+            return random.nextInt(bound);
+        }
+    }
 
     /**
      * Adds the manager to the running environment
@@ -72,7 +101,7 @@ public class GalaxyManager implements HyperspaceListener {
             ArrayList<GalaxyManager> tempManagers = new ArrayList(managers);
 
             tempManagers.remove(current);
-            int index = new Random().nextInt(tempManagers.size());
+            int index = nextInt(tempManagers.size());
 
             gm = tempManagers.get(index);
 
@@ -85,6 +114,15 @@ public class GalaxyManager implements HyperspaceListener {
         return gm;
     }
 
+    /**
+     * @return a copy of the list of every manager
+     */
+    static List<GalaxyManager> getManagers() {
+        synchronized (managers) {
+            return new ArrayList<GalaxyManager>(managers);
+        }
+    }
+
     /**
      * Destroys ALL existing managers, and cleans up resources associated with them
      */
@@ -113,17 +151,16 @@ public class GalaxyManager implements HyperspaceListener {
             pb.disconnect();
         }
         players.clear();
-        frameClock.cancel();
+        TickScheduler.getScheduler().remove(this);
         Logger.getLogger("Server").log(Level.INFO, "Galaxy Updater stopped");
     }
 
     /**
-     * Schedules the galaxy to update a rate of "UPDATE_PERIOD"
+     * Has the shared TickScheduler update the galaxy every Galaxy.UPDATE_PERIOD
      */
     private void startManager() {
         Logger.getLogger("Server").log(Level.INFO, "Galaxy Updater started");
-        //Leave a period delay to ensure buffers loaded
-        frameClock.scheduleAtFixedRate(frameSender, UPDATE_PERIOD, UPDATE_PERIOD);
+        TickScheduler.getScheduler().add(this);
     }
 
     /**
@@ -150,34 +187,170 @@ public class GalaxyManager implements HyperspaceListener {
         }
 
     }
-    //TimerTask responsible for updating the galaxy and the connected clients
-    private TimerTask frameSender = new TimerTask() {
+    //Task run by the TickScheduler to update the galaxy state
+    private final Callable<Object> stepTask = new Callable<Object>() {
 
         @Override
-        public void run() {
-
-            //Update galaxy state
+        public Object call() {
+            long start = System.nanoTime();
             galaxy.update();
+            long time = System.nanoTime() - start;
+
+            lastUpdateNanos = time;
+            maxUpdateNanos = Math.max(maxUpdateNanos, time);
+            ServerMetrics.GALAXY_UPDATE.record(time);
+            ServerMetrics.STEP_TIME.record(galaxy.getStepTimeNanos());
+            ServerMetrics.PROCESS_COLLISIONS.record(galaxy.getCollisionNanos());
+            return null;
+        }
+    };
+
+    //The galaxy's snapshot for this tick, shared by every player in it
+    private final SnapshotBroadcast broadcast = new SnapshotBroadcast();
+    //The players being sent to this tick, reused every tick
+    private final List<PlayerBinding> sending = new ArrayList<PlayerBinding>();
+
+    //Task run by the TickScheduler, once every galaxy has been updated, to
+    //send the galaxy to the connected clients
+    private final Callable<Object> sendTask = new Callable<Object>() {
 
-            //Use clone so removes can be done in loop
-            Collection<PlayerBinding> playersClone = new ArrayList<PlayerBinding>(players);
-            for (PlayerBinding pb : playersClone) {
+        @Override
+        public Object call() {
+            //Use copy so removes can be done in loop
+            synchronized (players) {
+                for (PlayerBinding pb : players) {
+                    sending.add(pb);
+                }
+            }
+            if (sending.isEmpty()) {
+                return null;
+            }
+            //Numbered by the tick, so no two galaxies share a sequence number
+            synchronized (galaxy) {
+                broadcast.capture(galaxy, (int) TickScheduler.getScheduler().getTicks());
+            }
+            for (int i = 0; i < sending.size(); i++) {
+                PlayerBinding pb = sending.get(i);
                 try {
-                    //Synchronized to avoid sending galaxies when clients are hyperspacing
-                    synchronized (galaxy) {
-                        pb.sendGalaxy();
-                    }
+                    long start = System.nanoTime();
+                    pb.sendGalaxy(broadcast);
+                    ServerMetrics.SEND_GALAXY.record(System.nanoTime() - start);
                 } catch (IOException ex) {
                     //On clients' socket closed
                     Logger.getLogger("Server").log(Level.INFO, "Removing Player");
                     removePlayer(pb);
                 }
             }
+            sending.clear();
+            return null;
         }
-
-        ;
     };
 
+    /**
+     * Carries out the jumps and restarts asked for during the last update.
+     * Called by the TickScheduler once every galaxy has been updated and
+     * before any are sent, one manager at a time, so ships can be moved
+     * between galaxies without any other galaxy's lock being held.
+     */
+    void resolveRequests() {
+        galaxy.drainRequests(requests);
+        for (InputCommand command : requests) {
+            for (PlayerBinding pb : getPlayers()) {
+                if (pb.handleRequest(command)) {
+                    break;
+                }
+            }
+        }
+        requests.clear();
+    }
+
+    /**
+     * @return the task updating the galaxy state for one tick
+     */
+    Callable<Object> getStepTask() {
+        return stepTask;
+    }
+
+    /**
+     * @return the task sending the galaxy to the clients for one tick
+     */
+    Callable<Object> getSendTask() {
+        return sendTask;
+    }
+
+    /**
+     * @return the number identifying this galaxy in the metrics
+     */
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return a copy of the list of players in this galaxy
+     */
+    List<PlayerBinding> getPlayers() {
+        synchronized (players) {
+            return new ArrayList<PlayerBinding>(players);
+        }
+    }
+
+    /**
+     * @return the seed this galaxy was built from
+     */
+    long getSeed() {
+        return galaxy.getSeed();
+    }
+
+    /**
+     * @return the number of spaceMasses in this galaxy
+     */
+    int getEntityCount() {
+        return galaxy.getEntityCount();
+    }
+
+    /**
+     * @return the time taken by the last galaxy update in nanoseconds
+     */
+    long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    /**
+     * @return the time taken by the slowest galaxy update in nanoseconds
+     */
+    long getMaxUpdateNanos() {
+        return maxUpdateNanos;
+    }
+
+    /**
+     * @return the number of snapshot bodies encoded for this galaxy
+     */
+    long getBodiesEncoded() {
+        return broadcast.getBodiesEncoded();
+    }
+
+    /**
+     * @return the number of snapshot bodies sent to a player without
+     * encoding them again
+     */
+    long getBodiesShared() {
+        return broadcast.getBodiesShared();
+    }
+
+    /**
+     * @return the number of snapshot bodies compressed for this galaxy
+     */
+    long getBodiesCompressed() {
+        return broadcast.getBodiesCompressed();
+    }
+
+    /**
+     * @return the bytes compressing this galaxy's snapshot bodies saved
+     */
+    long getBytesSavedByCompression() {
+        return broadcast.getBytesSavedByCompression();
+    }
+
     /**
      * Implementing interface HyperspaceListener
      * Used to physically move clients between galaxies
@@ -185,11 +358,10 @@ public class GalaxyManager implements HyperspaceListener {
      */
     @Override
     public void onHyperspace(PlayerBinding pb) {
-        //Synchronized to avoid hyperspacing clients while sending galaxies.
-        synchronized (galaxy) {
-            GalaxyManager gm = GalaxyManager.getManagerNot(this);
-            removePlayer(pb);
-            gm.addPlayer(pb);
-        }
+        //Only called from resolveRequests, while no galaxy is being updated
+        //or sent, so neither galaxy needs locking across the move.
+        GalaxyManager gm = GalaxyManager.getManagerNot(this);
+        removePlayer(pb);
+        gm.addPlayer(pb);
     }
 }
@@ -0,0 +1,150 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in the style of HdrHistogram. Values are counted
+ * in log-linear buckets: every power of two is split into 16 equal buckets,
+ * so any recorded value is reported to within about 6% whether it is a
+ * microsecond or a minute. Recording is a single lock free increment, cheap
+ * enough to do for every galaxy and every player on every tick.
+ * @author kjb146 and zjt14
+ */
+public class LatencyHistogram {
+
+    //bits of each value kept below its leading bit
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //largest power of two tracked, 2^40 nanoseconds is about 18 minutes
+    private static final int MAX_EXPONENT = 40;
+
+    //the name of the histogram, used when reporting it
+    private final String name;
+    //the number of values recorded in each bucket
+    private final AtomicLongArray counts =
+            new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    //the number, total and largest of the values recorded
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param name the name of the histogram, used when reporting it
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the histogram
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a duration
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long largest = max.get();
+        while (nanos > largest && !max.compareAndSet(largest, nanos)) {
+            largest = max.get();
+        }
+    }
+
+    /**
+     * Forgets every recorded value
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean of the values recorded in nanoseconds
+     */
+    public long getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : total.get() / n;
+    }
+
+    /**
+     * @return the largest value recorded in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Finds the value a given fraction of recorded values are at or below
+     * @param quantile the fraction, from 0 to 1 (e.g. 0.99)
+     * @return the value in nanoseconds, the top of its bucket, 0 if nothing
+     * has been recorded
+     */
+    public long getQuantile(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(max.get(), highestValue(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param value a value in nanoseconds
+     * @return the bucket counting the value
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the largest value counted in the bucket
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (((SUB_BUCKETS + sub + 1) << shift)) - 1;
+    }
+}
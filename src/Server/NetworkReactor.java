@@ -0,0 +1,177 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multiplexes the sockets of every player onto a few I/O threads, each
+ * running a selector over the non-blocking channels assigned to it. Players
+ * are spread over the reactors as they connect, so the number of threads the
+ * server runs does not grow with the number of players.
+ *
+ * Other threads never touch a selector directly; they queue the binding and
+ * wake the reactor, which does the work on its own thread.
+ * @author kjb146 and zjt14
+ */
+public class NetworkReactor implements Runnable {
+
+    //number of I/O threads shared by every player
+    public static final int IO_THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    //the reactors, started when the first player connects
+    private static NetworkReactor[] reactors;
+    //the reactor the next player is assigned to
+    private static int nextReactor = 0;
+
+    //the selector over every channel assigned to this reactor
+    private final Selector selector;
+    //bindings waiting to be registered with the selector
+    private final Queue<PlayerBinding> registrations = new ConcurrentLinkedQueue<PlayerBinding>();
+    //bindings with outbound frames waiting to be written
+    private final Queue<PlayerBinding> writeRequests = new ConcurrentLinkedQueue<PlayerBinding>();
+
+    /**
+     * Assigns a player to one of the reactors, round robin, starting the
+     * reactors if this is the first player
+     * @return the reactor to use
+     * @throws IOException if the reactors cannot be started
+     */
+    static synchronized NetworkReactor next() throws IOException {
+        if (reactors == null) {
+            NetworkReactor[] started = new NetworkReactor[IO_THREADS];
+            for (int i = 0; i < started.length; i++) {
+                started[i] = new NetworkReactor(i);
+            }
+            reactors = started;
+        }
+        NetworkReactor reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        return reactor;
+    }
+
+    /**
+     * Private constructor, reactors are only created by next()
+     * @param number the number of the reactor, used to name its thread
+     * @throws IOException if the selector cannot be opened
+     */
+    private NetworkReactor(int number) throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this, "NetworkReactor-" + number);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts listening for inputs from a player. Can be called from any thread.
+     * @param pb the binding whose channel is to be registered
+     */
+    void register(PlayerBinding pb) {
+        registrations.add(pb);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks for a player's outbound frames to be written. Can be called from
+     * any thread.
+     * @param pb the binding with frames to write
+     */
+    void requestWrite(PlayerBinding pb) {
+        writeRequests.add(pb);
+        selector.wakeup();
+    }
+
+    /**
+     * The reactor loop: waits for channels to become ready or for work to be
+     * queued, then reads inputs and writes frames without ever blocking
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                processQueues();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key, (PlayerBinding) key.attachment());
+                }
+            } catch (IOException ex) {
+                Logger.getLogger("Server").log(Level.SEVERE, "Network reactor error", ex);
+            }
+        }
+    }
+
+    /**
+     * Registers new channels and writes the frames queued since the last pass
+     */
+    private void processQueues() {
+        PlayerBinding pb;
+        while ((pb = registrations.poll()) != null) {
+            try {
+                pb.getChannel().register(selector, SelectionKey.OP_READ, pb);
+            } catch (ClosedChannelException ex) {
+                //disconnected before it was registered, nothing to listen to
+            }
+        }
+        while ((pb = writeRequests.poll()) != null) {
+            SelectionKey key = pb.getChannel().keyFor(selector);
+            if (key != null && key.isValid()) {
+                write(key, pb);
+            }
+        }
+    }
+
+    /**
+     * Services a channel the selector found ready
+     * @param key the channel's key
+     * @param pb the binding for the channel
+     */
+    private void handle(SelectionKey key, PlayerBinding pb) {
+        try {
+            if (key.isValid() && key.isReadable()) {
+                pb.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, pb);
+            }
+        } catch (CancelledKeyException ex) {
+            //disconnected by another thread while being serviced
+        } catch (IOException ex) {
+            Logger.getLogger("Server").log(Level.INFO, "MSG: {0}", ex.getMessage());
+            pb.disconnect();
+        }
+    }
+
+    /**
+     * Writes as much of a player's outbound frames as the socket will take,
+     * and only asks the selector to report the channel writable while some
+     * are left over
+     * @param key the channel's key
+     * @param pb the binding for the channel
+     */
+    private void write(SelectionKey key, PlayerBinding pb) {
+        try {
+            if (pb.onWritable()) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (CancelledKeyException ex) {
+            //disconnected by another thread while being serviced
+        } catch (IOException ex) {
+            Logger.getLogger("Server").log(Level.INFO, "MSG: {0}", ex.getMessage());
+            pb.disconnect();
+        }
+    }
+}
@@ -2,21 +2,52 @@ package Server;
 
 import common.ClientInput;
 import common.Galaxy;
+import common.InputCodec;
+import common.InputCommand;
+import common.SnapshotCodec;
 import common.Spacecraft;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class represents the join between a spacecraft and a client socket
  * It is responsible for the updating of the spacecraft from user input
+ *
+ * The socket is non-blocking and serviced by a NetworkReactor. Snapshots are
+ * queued for the reactor to write rather than written by the galaxy's
+ * thread, and a snapshot still waiting when a newer one is sent is dropped,
+ * so a slow client can never hold up its galaxy. Inputs go the other way
+ * through the galaxy's command queue, so only the galaxy's own thread ever
+ * changes the spacecraft.
+ *
+ * Clients that send their inputs over the DatagramEndpoint too are sent
+ * their snapshots by datagram instead, straight from the galaxy's send task,
+ * for as long as their datagrams keep arriving.
  * @author kjb146 and zjt14
  */
 public class PlayerBinding {
 
+    //Source of the tokens clients prove their datagrams are theirs with
+    private static final SecureRandom TOKENS = new SecureRandom();
+    //Snapshots go back over TCP if no datagram has arrived for this long
+    private static final long DATAGRAM_TIMEOUT_NANOS = 1000000000L;
+    //Ticks the bandwidth to the client is measured over
+    private static final int BANDWIDTH_WINDOW_TICKS = 20;
+    //Snapshots are compressed once they would take more than this fraction
+    //of the bandwidth uncompressed
+    private static final double BANDWIDTH_HEADROOM = 0.8;
+    //Growth each window the bandwidth estimate is given while the socket
+    //keeps up, so a link that has recovered is noticed
+    private static final double BANDWIDTH_PROBE = 1.1;
+
     /* Private variables (most volatile to avoid optimization
      * which can interfere with multiple threads accessing and changing them
      */
@@ -25,29 +56,91 @@ public class PlayerBinding {
     private HyperspaceListener hsListener;
 
     //Socket variables
-    private volatile Socket socket;
-    private volatile ObjectInputStream objIn;
-    private volatile ObjectOutputStream objOut;
+    private final SocketChannel channel;
+    private final NetworkReactor reactor;
+    //Bytes received that do not yet make up a whole input
+    private final ByteBuffer inbound = ByteBuffer.allocate(64 * InputCodec.FRAME_SIZE);
+    //The input being decoded, reused for every input
+    private final ClientInput input = new ClientInput();
+    //Sequence number of the last input acted on
+    private int inputSequence = 0;
+    //Outbound frames, each this player's header and the body shared with
+    //the rest of the galaxy: the one being written to the socket, the
+    //newest one waiting behind it and a finished one to reuse, guarded by
+    //outboundLock
+    private final Object outboundLock = new Object();
+    private OutboundFrame frame = new OutboundFrame();
+    private OutboundFrame writing;
+    private OutboundFrame waiting;
+    private OutboundFrame spare;
+    //The server's UDP socket, null if it could not be opened
+    private final DatagramEndpoint datagrams;
+    //The token the client's datagrams must start with, sent to it over TCP
+    private final long datagramToken = TOKENS.nextLong();
+    //Where the client's datagrams come from, fixed by the first to arrive,
+    //and System.nanoTime() when the last arrived
+    private volatile SocketAddress datagramAddress;
+    private volatile long lastDatagramNanos;
+    //Bandwidth to the client in bytes a second, measured whenever the socket
+    //fills, 0 until it has; the window it is measured over, and the totals
+    //at the start of the window. Only used by the galaxy's send task.
+    private double bandwidth = 0;
+    private long windowStart = System.nanoTime();
+    private int windowTicks = 0;
+    private long windowBytes = 0;
+    private long windowDropped = 0;
+    private long windowBlocked = 0;
+    //Bytes the snapshots sent this window would be uncompressed
+    private long windowDemand = 0;
+    //True while the client is sent compressed snapshots
+    private volatile boolean compress = false;
+    //True while the reactor has been asked to write and has not yet started
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    //Traffic counters for the metrics
+    private volatile long framesDropped = 0;
+    private volatile long framesSent = 0;
+    private volatile long writesBlocked = 0;
+    private volatile long bytesSent = 0;
+    private volatile long inputsReceived = 0;
+    private volatile long datagramsSent = 0;
+    private volatile long datagramBytesSent = 0;
+    private volatile long datagramsReceived = 0;
+    private volatile long datagramsDropped = 0;
+    //Last snapshot the client acknowledged receiving, -1 for none
+    private volatile int acknowledged = -1;
+    //First snapshot that can have been sent from the current galaxy,
+    //earlier ones describe a different galaxy and cannot be baselines
+    private volatile int galaxySequence = 0;
     
     /**
      * Constructor, generates associated resources for the given connection
-     * @param socket the socket linked to the client
+     * and sends the client its datagram token, the first bytes on the
+     * connection
+     * @param channel the connected channel linked to the client
+     * @throws IOException if the token cannot be sent or the channel cannot
+     * be made non-blocking
      */
-    public PlayerBinding(Socket socket) {
-        try {
-            spacecraft = new Spacecraft();
-
-            this.socket = socket;
-
-            objOut = new ObjectOutputStream(socket.getOutputStream());
-            //This is a blocking constructor
-            objIn = new ObjectInputStream(socket.getInputStream());
-
+    public PlayerBinding(SocketChannel channel) throws IOException {
+        spacecraft = new Spacecraft();
 
-            startConnection();
+        this.channel = channel;
+        //the UDP port is bound before the client learns its token, so its
+        //first datagram has somewhere to go
+        datagrams = DatagramEndpoint.getEndpoint();
+        //written while the channel still blocks, so all of it goes
+        ByteBuffer token = ByteBuffer.allocate(InputCodec.TOKEN_SIZE);
+        token.putLong(datagramToken);
+        token.flip();
+        while (token.hasRemaining()) {
+            channel.write(token);
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true); //Stops issues with packet delay
 
-        } catch (IOException ex) {
-            Logger.getLogger(PlayerBinding.class.getName()).log(Level.SEVERE, null, ex);
+        reactor = NetworkReactor.next();
+        reactor.register(this);
+        if (datagrams != null) {
+            datagrams.register(this);
         }
     }
 
@@ -62,19 +155,12 @@ public class PlayerBinding {
         }
        // synchronized (g) {
         galaxy = g;
+        galaxySequence = (int) TickScheduler.getScheduler().getTicks();
         spacecraft.setLocation(g.safeSpawn(spacecraft.getRadius()));
         galaxy.addSpaceMass(spacecraft);
       //  }
     }
 
-    /**
-     * Starts the binding listening for client inputs, to update spacecraft state
-     * NON-BLOCKING
-     */
-    private final void startConnection() {
-        new Thread(inputListener).start();
-    }
-
     /**
      * Assigns a hyperspace listener to the binding,
      * The listener is triggered when the craft wants to hyperspace
@@ -85,76 +171,233 @@ public class PlayerBinding {
     }
 
     /**
-     * Sends the galaxy state to the far client
+     * Sends the galaxy state to the far client as a binary snapshot frame.
+     * The snapshot is a delta against the last one the client acknowledged,
+     * or a keyframe if there is no such snapshot from the current galaxy.
+     * Only the frame's header is encoded for this player, the body is
+     * shared with the rest of the galaxy. Players the body would take too
+     * much of the bandwidth of are sent it compressed.
+     * @param broadcast the galaxy's snapshot for this tick
      * @throws IOException when socket is closed or corrupt
      */
-    public void sendGalaxy() throws IOException {
+    public void sendGalaxy(SnapshotBroadcast broadcast) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Connection closed");
+        }
         //Check against null pointers
         if (galaxy == null) {
             return;
         }
-        //synchronized (galaxy) {
-            galaxy.setPlayerID(spacecraft.id);
 
-            objOut.reset();
-            objOut.writeObject(galaxy);
-      //  }
-    }
+        SharedFrame body = broadcast.body(acknowledged, galaxySequence);
+        measureBandwidth(SnapshotCodec.PLAYER_HEADER_SIZE + body.getBuffer().remaining());
+        frame.share(compress ? broadcast.compressed(body) : body);
+        SnapshotCodec.encodeHeader(spacecraft.id, spacecraft.getLastInput(),
+                frame.buffers[1].remaining(), frame.buffers[0]);
 
-    //The listener for userinput and actions appropriately
-    private Runnable inputListener = new Runnable() {
-
-        @Override
-        public void run() {
+        //send by datagram if the client is listening for them and it fits
+        SocketAddress to = datagramAddress;
+        int size = frame.buffers[0].remaining() + frame.buffers[1].remaining();
+        if (to != null && size <= SnapshotCodec.MAX_DATAGRAM_SIZE
+                && System.nanoTime() - lastDatagramNanos < DATAGRAM_TIMEOUT_NANOS) {
             try {
+                if (datagrams.send(frame.buffers, to)) {
+                    datagramsSent++;
+                    datagramBytesSent += size;
+                } else {
+                    datagramsDropped++;
+                }
+            } finally {
+                frame.release();
+            }
+            return;
+        }
 
-                while (!socket.isClosed()) {
-                    ClientInput ci = (ClientInput) objIn.readObject();
+        //queue the frame, reusing whichever frame it replaces
+        synchronized (outboundLock) {
+            OutboundFrame stale = waiting;
+            waiting = frame;
+            if (stale != null) {
+                framesDropped++;
+                stale.release();
+                frame = stale;
+            } else {
+                frame = (spare != null) ? spare : new OutboundFrame();
+                spare = null;
+            }
+        }
+        if (writeRequested.compareAndSet(false, true)) {
+            reactor.requestWrite(this);
+        }
+    }
+
+    /**
+     * Measures the bandwidth to the client, and chooses whether to compress
+     * its snapshots. The bandwidth is what got through in a window where
+     * the socket filled up; snapshots are compressed while, uncompressed,
+     * they would need more than BANDWIDTH_HEADROOM of it.
+     * @param demand the bytes this tick's snapshot takes uncompressed
+     */
+    private void measureBandwidth(int demand) {
+        windowDemand += demand;
+        if (++windowTicks < BANDWIDTH_WINDOW_TICKS) {
+            return;
+        }
+        long now = System.nanoTime();
+        double seconds = (now - windowStart) / 1e9;
+        long bytes = bytesSent + datagramBytesSent;
+        long dropped = framesDropped + datagramsDropped;
+        long blocked = writesBlocked;
+        if (dropped != windowDropped || blocked != windowBlocked) {
+            bandwidth = (bytes - windowBytes) / seconds;
+        } else if (bandwidth > 0) {
+            bandwidth *= BANDWIDTH_PROBE;
+        }
+        compress = bandwidth > 0
+                && windowDemand / seconds > bandwidth * BANDWIDTH_HEADROOM;
 
-                    /*Parse inputs*/
+        windowStart = now;
+        windowTicks = 0;
+        windowBytes = bytes;
+        windowDropped = dropped;
+        windowBlocked = blocked;
+        windowDemand = 0;
+    }
 
-                    //rageQuit, regardless of player alive/dead
-                    if (ci.getExit()) {
-                        disconnect();
-                    }
-                    if (spacecraft.isDead()) {
-                        //Only if client is dead
-                        if (ci.getRestart()) {
-                            Logger.getLogger("Server").log(Level.INFO, "Client attempted restart");
-                            spacecraft.reset();
-                            doHyperspace();
-                        }
-                    } else {
-                        //Only if client is alive
-                        if (ci.getFire()) {
-                            spacecraft.fire(galaxy);
-                        }
-                        if (ci.getForward()) {
-                            spacecraft.thrust();
-                        }
-                        if (ci.getLeft()) {
-                            spacecraft.counterClockwise();
-                        }
-                        if (ci.getRight()) {
-                            spacecraft.clockwise();
-                        }
-                        if (ci.getJump()) {
-                            Logger.getLogger("Server").log(Level.INFO, "CLIENT TRIED HYPERSPACE");
-                            doHyperspace();
+    /**
+     * Writes queued frames until the socket will take no more. Only called by
+     * the reactor.
+     * @return true if every queued frame has been written
+     * @throws IOException if the socket fails
+     */
+    boolean onWritable() throws IOException {
+        writeRequested.set(false);
+        while (true) {
+            if (writing == null || !writing.buffers[1].hasRemaining()) {
+                synchronized (outboundLock) {
+                    if (writing != null) {
+                        writing.release();
+                        if (spare == null) {
+                            spare = writing;
                         }
                     }
+                    writing = waiting;
+                    waiting = null;
+                }
+                if (writing == null) {
+                    return true;
                 }
-            } catch (ClassNotFoundException ex) {
-                Logger.getLogger("Server").log(Level.SEVERE, "network to object exception");
-            } catch (IOException ex) {
-                Logger.getLogger("Client").log(Level.SEVERE, "MSG: " + ex.getMessage());
-                ex.printStackTrace();
             }
+            channel.write(writing.buffers);
+            if (writing.buffers[1].hasRemaining()) {
+                writesBlocked++;
+                return false;
+            }
+            framesSent++;
+            bytesSent += writing.buffers[0].limit() + writing.buffers[1].limit();
+        }
+    }
+
+    /**
+     * @param from where a datagram holding this player's token came from
+     * @return true if it is from the machine this player is connected to,
+     * and from the same port as the first datagram accepted
+     */
+    boolean acceptsDatagramsFrom(SocketAddress from) {
+        SocketAddress pinned = datagramAddress;
+        if (pinned != null) {
+            return pinned.equals(from);
+        }
+        return from instanceof InetSocketAddress
+                && ((InetSocketAddress) from).getAddress().equals(
+                channel.socket().getInetAddress());
+    }
+
+    /**
+     * Acts on an input the client sent by datagram, and sends snapshots
+     * back the same way. The first datagram fixes where the rest must come
+     * from. Only called by the DatagramEndpoint.
+     * @param ci the input
+     * @param from where the datagram came from
+     */
+    void onDatagram(ClientInput ci, SocketAddress from) {
+        datagramsReceived++;
+        lastDatagramNanos = System.nanoTime();
+        if (datagramAddress == null) {
+            datagramAddress = from;
+        }
+        handleInput(ci);
+    }
+
+    /**
+     * Reads whatever the client has sent and acts on every whole input.
+     * Only called by the reactor.
+     * @throws IOException if the socket fails or the client sends garbage
+     */
+    void onReadable() throws IOException {
+        if (channel.read(inbound) < 0) {
+            throw new EOFException("Client closed the connection");
+        }
+        inbound.flip();
+        while (channel.isOpen() && InputCodec.decode(inbound, input)) {
+            handleInput(input);
+        }
+        inbound.compact();
+    }
+
+    /**
+     * Acts on an input from the client. Exiting is done straight away, the
+     * controls are queued on the galaxy for its next update to apply and
+     * stay held until the next input. Inputs older than one already acted
+     * on are ignored, so an input sent both ways is only acted on once.
+     * @param ci the input
+     */
+    private synchronized void handleInput(ClientInput ci) {
+        inputsReceived++;
+        if (ci.getSequence() - inputSequence <= 0 && inputSequence != 0) {
+            return;
+        }
+        inputSequence = ci.getSequence();
+        acknowledged = ci.getAcknowledged();
 
-            //Once code has left block (on socket error) disconnect to clean up socket
+        //rageQuit, regardless of player alive/dead
+        if (ci.getExit()) {
             disconnect();
+            return;
+        }
+        Galaxy g = galaxy;
+        int buttons = InputCommand.buttons(ci);
+        if (g != null) {
+            g.submit(new InputCommand(spacecraft, buttons, ci.getTick(),
+                    g.getTick()));
+        }
+    }
+
+    /**
+     * Acts on a jump or restart the galaxy has handed back. Only called by
+     * the TickScheduler between updating and sending, so no galaxy is being
+     * updated while the ship moves between them.
+     * @param command the input asking for it
+     * @return false if the input was not for this player's ship
+     */
+    boolean handleRequest(InputCommand command) {
+        if (command.getShip() != spacecraft) {
+            return false;
+        }
+        if (spacecraft.isDead()) {
+            //Only if client is dead
+            if (command.isHeld(InputCommand.RESTART)) {
+                Logger.getLogger("Server").log(Level.INFO, "Client attempted restart");
+                spacecraft.reset();
+                doHyperspace();
+            }
+        } else if (command.isHeld(InputCommand.JUMP)) {
+            //Only if client is alive
+            Logger.getLogger("Server").log(Level.INFO, "CLIENT TRIED HYPERSPACE");
+            doHyperspace();
         }
-    };
+        return true;
+    }
 
     /**
      * If hyperspace listener exists,
@@ -171,17 +414,157 @@ public class PlayerBinding {
      * Cleans up all resources associated with the socket
      */
     public void disconnect() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (datagrams != null) {
+            datagrams.unregister(this);
+        }
+        //the frame being written, if any, is left to the garbage collector
+        //as the reactor may still be writing it
+        synchronized (outboundLock) {
+            if (waiting != null) {
+                waiting.release();
+                waiting = null;
+            }
+        }
         try {
             Logger.getLogger("Server").log(Level.INFO, "Client Disconnected");
-            objIn.close();
-            objOut.close();
-            socket.close();
+            channel.close();
         } catch (IOException ex) {
-            Logger.getLogger("Server").log(Level.INFO, "Player disconnected {0}", new String[]{socket.getInetAddress().getHostAddress()});
+            Logger.getLogger("Server").log(Level.INFO, "Player disconnected {0}", new String[]{String.valueOf(channel.socket().getInetAddress())});
             ex.printStackTrace();
         }
     }
 
+    /**
+     * @return the channel linked to the client
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the token the client's datagrams start with
+     */
+    long getDatagramToken() {
+        return datagramToken;
+    }
+
+    /**
+     * @return the ID of the players ship
+     */
+    public long getShipID() {
+        return spacecraft.id;
+    }
+
+    /**
+     * @return the number of snapshots written to the client
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * @return the number of bytes of snapshots written to the client
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return true if the client is being sent compressed snapshots
+     */
+    public boolean isCompressing() {
+        return compress;
+    }
+
+    /**
+     * @return the number of times the socket filled before a snapshot was
+     * written
+     */
+    public long getWritesBlocked() {
+        return writesBlocked;
+    }
+
+    /**
+     * @return the number of snapshots sent to the client by datagram
+     */
+    public long getDatagramsSent() {
+        return datagramsSent;
+    }
+
+    /**
+     * @return the number of bytes of snapshots sent to the client by
+     * datagram
+     */
+    public long getDatagramBytesSent() {
+        return datagramBytesSent;
+    }
+
+    /**
+     * @return the number of inputs received from the client by datagram
+     */
+    public long getDatagramsReceived() {
+        return datagramsReceived;
+    }
+
+    /**
+     * @return the number of snapshot datagrams the socket had no room for
+     */
+    public long getDatagramsDropped() {
+        return datagramsDropped;
+    }
+
+    /**
+     * @return the number of inputs received from the client
+     */
+    public long getInputsReceived() {
+        return inputsReceived;
+    }
+
+    /**
+     * @return the number of snapshots dropped because the client was not
+     * keeping up
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * A snapshot frame queued for the client: a header of its own, in a
+     * direct buffer reused for every frame, and a reference to a body
+     * shared with the rest of the galaxy
+     */
+    private static class OutboundFrame {
+
+        //the header and a view of the body, written out together
+        final ByteBuffer[] buffers = new ByteBuffer[]{
+            ByteBuffer.allocateDirect(SnapshotCodec.PLAYER_HEADER_SIZE), null};
+        //the body the view is of, null once released
+        private SharedFrame body;
+
+        /**
+         * Takes a reference to the body to send
+         * @param shared the body
+         */
+        void share(SharedFrame shared) {
+            body = shared;
+            buffers[1] = shared.share();
+        }
+
+        /**
+         * Gives back the reference to the body, once written or dropped
+         */
+        void release() {
+            if (body != null) {
+                body.release(buffers[1]);
+                body = null;
+                buffers[1] = null;
+            }
+        }
+    }
+
     /**
      * Interface HyperspaceListener
      * Provides a gateway for hyperspace to be implemented outside PlayerBinding
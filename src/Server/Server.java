@@ -3,9 +3,10 @@ package Server;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +84,7 @@ public class Server {
             mSocket = new MulticastSocket(MULTICAST_PORT);
             mSocket.joinGroup(MULTICAST_ADDRESS);
             new Thread(multicastListener).start();
+            ServerMetrics.start();
             
         } catch (UnknownHostException ex) {
             Logger.getLogger(Server.class.getName()).log(Level.SEVERE, null, ex);
@@ -96,6 +98,7 @@ public class Server {
      */
     public void stopServer() {
         GalaxyManager.killAll();
+        ServerMetrics.stop();
         try {
             mSocket.leaveGroup(MULTICAST_ADDRESS);
             mSocket.close();
@@ -165,9 +168,8 @@ public class Server {
         try {
             Logger.getLogger("Server").log(Level.INFO, "Adding Client");
 
-            Socket s = new Socket(ip, TCP_PORT);
-            s.setTcpNoDelay(true); //Stops issues with packet delay
-            PlayerBinding pb = new PlayerBinding(s);
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(ip, TCP_PORT));
+            PlayerBinding pb = new PlayerBinding(channel);
 
             GalaxyManager gm = GalaxyManager.getManager();
             gm.addPlayer(pb);
@@ -0,0 +1,290 @@
+package Server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Low overhead metrics for the running server: latency histograms for each
+ * phase of a tick, the size and update time of each galaxy, and the traffic
+ * to each player. They are served as plain text from
+ * http://localhost:METRICS_PORT/metrics and exposed over JMX as OBJECT_NAME,
+ * so the galaxies blowing the tick budget can be found while the server runs.
+ * @author kjb146 and zjt14
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    //port the metrics are served on, only to the local machine
+    public static final int METRICS_PORT = 4282;
+    //name the metrics are registered under with JMX
+    public static final String OBJECT_NAME = "Spacewars:type=ServerMetrics";
+
+    //time taken by each phase of a tick
+    static final LatencyHistogram TICK = new LatencyHistogram("tick");
+    static final LatencyHistogram GALAXY_UPDATE = new LatencyHistogram("galaxy_update");
+    static final LatencyHistogram STEP_TIME = new LatencyHistogram("step_time");
+    static final LatencyHistogram PROCESS_COLLISIONS = new LatencyHistogram("process_collisions");
+    static final LatencyHistogram SEND_GALAXY = new LatencyHistogram("send_galaxy");
+    private static final LatencyHistogram[] PHASES = {
+        TICK, GALAXY_UPDATE, STEP_TIME, PROCESS_COLLISIONS, SEND_GALAXY};
+    //quantiles reported for each phase
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    //the running metrics, null when stopped
+    private static ServerMetrics metrics;
+    //the HTTP server, null if the port could not be bound
+    private HttpServer http;
+
+    /**
+     * Starts serving the metrics over HTTP and JMX, if not already started
+     */
+    public static synchronized void start() {
+        if (metrics != null) {
+            return;
+        }
+        metrics = new ServerMetrics();
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            Logger.getLogger("Server").log(Level.WARNING, "Could not register metrics with JMX", ex);
+        }
+        try {
+            metrics.http = HttpServer.create(new InetSocketAddress(
+                    InetAddress.getByName("127.0.0.1"), METRICS_PORT), 0);
+            metrics.http.createContext("/metrics", new HttpHandler() {
+
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = report().getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+            });
+            metrics.http.start();
+        } catch (IOException ex) {
+            Logger.getLogger("Server").log(Level.WARNING, "Could not serve metrics on port {0}", METRICS_PORT);
+            metrics.http = null;
+        }
+    }
+
+    /**
+     * Stops serving the metrics
+     */
+    public static synchronized void stop() {
+        if (metrics == null) {
+            return;
+        }
+        if (metrics.http != null) {
+            metrics.http.stop(0);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            //was never registered
+        }
+        metrics = null;
+    }
+
+    /**
+     * Private constructor, the metrics are only created by start()
+     */
+    private ServerMetrics() {
+    }
+
+    /**
+     * Builds a report of every metric, one "name{labels} value" line each.
+     * Times are in milliseconds.
+     * @return the report
+     */
+    public static String report() {
+        StringBuilder out = new StringBuilder(4096);
+        TickScheduler scheduler = TickScheduler.getScheduler();
+        List<GalaxyManager> managers = GalaxyManager.getManagers();
+
+        int players = 0;
+        for (GalaxyManager gm : managers) {
+            players += gm.getPlayers().size();
+        }
+        line(out, "spacewars_galaxies", "", managers.size());
+        line(out, "spacewars_players", "", players);
+        line(out, "spacewars_ticks_total", "", scheduler.getTicks());
+        line(out, "spacewars_frame_pool_hits_total", "", SnapshotBroadcast.FRAMES.getHits());
+        line(out, "spacewars_frame_pool_misses_total", "", SnapshotBroadcast.FRAMES.getMisses());
+        line(out, "spacewars_frame_pool_free_bytes", "", SnapshotBroadcast.FRAMES.getFreeBytes());
+        DatagramEndpoint datagrams = DatagramEndpoint.getEndpoint();
+        if (datagrams != null) {
+            line(out, "spacewars_datagrams_rejected_total", "", datagrams.getDatagramsRejected());
+        }
+        line(out, "spacewars_tick_overruns_total", "", scheduler.getOverruns());
+        line(out, "spacewars_late_ticks_total", "", scheduler.getLateTicks());
+
+        for (LatencyHistogram phase : PHASES) {
+            String labels = "phase=\"" + phase.getName() + "\"";
+            line(out, "spacewars_phase_count", labels, phase.getCount());
+            for (double q : QUANTILES) {
+                line(out, "spacewars_phase_ms", labels + ",quantile=\"" + q + "\"",
+                        millis(phase.getQuantile(q)));
+            }
+            line(out, "spacewars_phase_ms", labels + ",quantile=\"max\"", millis(phase.getMax()));
+            line(out, "spacewars_phase_ms", labels + ",quantile=\"mean\"", millis(phase.getMean()));
+        }
+
+        //slowest galaxies first
+        Collections.sort(managers, new Comparator<GalaxyManager>() {
+
+            @Override
+            public int compare(GalaxyManager a, GalaxyManager b) {
+                return Long.valueOf(b.getMaxUpdateNanos()).compareTo(a.getMaxUpdateNanos());
+            }
+        });
+        for (GalaxyManager gm : managers) {
+            String galaxy = "galaxy=\"" + gm.getNumber() + "\"";
+            line(out, "spacewars_galaxy_seed", galaxy, gm.getSeed());
+            line(out, "spacewars_galaxy_entities", galaxy, gm.getEntityCount());
+            line(out, "spacewars_galaxy_players", galaxy, gm.getPlayers().size());
+            line(out, "spacewars_galaxy_update_ms", galaxy + ",stat=\"last\"", millis(gm.getLastUpdateNanos()));
+            line(out, "spacewars_galaxy_update_ms", galaxy + ",stat=\"max\"", millis(gm.getMaxUpdateNanos()));
+            line(out, "spacewars_galaxy_bodies_encoded_total", galaxy, gm.getBodiesEncoded());
+            line(out, "spacewars_galaxy_bodies_shared_total", galaxy, gm.getBodiesShared());
+            line(out, "spacewars_galaxy_bodies_compressed_total", galaxy, gm.getBodiesCompressed());
+            line(out, "spacewars_galaxy_compression_saved_bytes_total", galaxy, gm.getBytesSavedByCompression());
+            for (PlayerBinding pb : gm.getPlayers()) {
+                String player = galaxy + ",player=\"" + pb.getShipID() + "\"";
+                line(out, "spacewars_player_bytes_sent_total", player, pb.getBytesSent());
+                line(out, "spacewars_player_frames_sent_total", player, pb.getFramesSent());
+                line(out, "spacewars_player_frames_dropped_total", player, pb.getFramesDropped());
+                line(out, "spacewars_player_writes_blocked_total", player, pb.getWritesBlocked());
+                line(out, "spacewars_player_compressing", player, pb.isCompressing() ? 1 : 0);
+                line(out, "spacewars_player_datagrams_sent_total", player, pb.getDatagramsSent());
+                line(out, "spacewars_player_datagram_bytes_sent_total", player, pb.getDatagramBytesSent());
+                line(out, "spacewars_player_datagrams_dropped_total", player, pb.getDatagramsDropped());
+                line(out, "spacewars_player_datagrams_received_total", player, pb.getDatagramsReceived());
+                line(out, "spacewars_player_inputs_received_total", player, pb.getInputsReceived());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends a line of the report
+     * @param out the report
+     * @param name the metric name
+     * @param labels the labels, empty for none
+     * @param value the value
+     */
+    private static void line(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (labels.length() > 0) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * @param nanos a time in nanoseconds
+     * @return the time in milliseconds, formatted for the report
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * @return every player on the server
+     */
+    private static List<PlayerBinding> allPlayers() {
+        List<PlayerBinding> players = new ArrayList<PlayerBinding>();
+        for (GalaxyManager gm : GalaxyManager.getManagers()) {
+            players.addAll(gm.getPlayers());
+        }
+        return players;
+    }
+
+    @Override
+    public int getGalaxyCount() {
+        return GalaxyManager.getManagers().size();
+    }
+
+    @Override
+    public int getPlayerCount() {
+        return allPlayers().size();
+    }
+
+    @Override
+    public long getTicks() {
+        return TickScheduler.getScheduler().getTicks();
+    }
+
+    @Override
+    public long getTickOverruns() {
+        return TickScheduler.getScheduler().getOverruns();
+    }
+
+    @Override
+    public long getLateTicks() {
+        return TickScheduler.getScheduler().getLateTicks();
+    }
+
+    @Override
+    public double getTickP99Millis() {
+        return TICK.getQuantile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getGalaxyUpdateP99Millis() {
+        return GALAXY_UPDATE.getQuantile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getSendGalaxyP99Millis() {
+        return SEND_GALAXY.getQuantile(0.99) / 1e6;
+    }
+
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+        for (PlayerBinding pb : allPlayers()) {
+            bytes += pb.getBytesSent();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getFramesDropped() {
+        long dropped = 0;
+        for (PlayerBinding pb : allPlayers()) {
+            dropped += pb.getFramesDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    @Override
+    public void resetHistograms() {
+        for (LatencyHistogram phase : PHASES) {
+            phase.reset();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package Server;
+
+/**
+ * The server metrics exposed over JMX, under ServerMetrics.OBJECT_NAME
+ * @author kjb146 and zjt14
+ */
+public interface ServerMetricsMBean {
+
+    /**
+     * @return the number of galaxies being run
+     */
+    public int getGalaxyCount();
+
+    /**
+     * @return the number of players connected
+     */
+    public int getPlayerCount();
+
+    /**
+     * @return the number of ticks run
+     */
+    public long getTicks();
+
+    /**
+     * @return the number of ticks that took longer than the update period
+     */
+    public long getTickOverruns();
+
+    /**
+     * @return the number of ticks that started more than a period late
+     */
+    public long getLateTicks();
+
+    /**
+     * @return the 99th percentile time taken by a whole tick in milliseconds
+     */
+    public double getTickP99Millis();
+
+    /**
+     * @return the 99th percentile time taken by Galaxy.update in milliseconds
+     */
+    public double getGalaxyUpdateP99Millis();
+
+    /**
+     * @return the 99th percentile time taken by PlayerBinding.sendGalaxy in
+     * milliseconds
+     */
+    public double getSendGalaxyP99Millis();
+
+    /**
+     * @return the total bytes of snapshots written to players
+     */
+    public long getBytesSent();
+
+    /**
+     * @return the total snapshots dropped because players were not keeping up
+     */
+    public long getFramesDropped();
+
+    /**
+     * @return every metric in the same text format as the HTTP endpoint
+     */
+    public String getReport();
+
+    /**
+     * Forgets every time recorded in the histograms
+     */
+    public void resetHistograms();
+}
@@ -0,0 +1,92 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An encoded frame written to any number of sockets, counting the
+ * references held to it so its buffer goes back to the FramePool once the
+ * last one is released. Each holder is handed its own view of the buffer to
+ * write at its own pace; views are kept with the frame and reused, so
+ * sharing a frame creates no objects once the pool is warm.
+ * @author kjb146 and zjt14
+ */
+class SharedFrame {
+
+    //the pool the frame goes back to, null if it is not pooled
+    private final FramePool pool;
+    //the encoded frame, between 0 and its limit
+    private final ByteBuffer buffer;
+    //views handed back by holders, ready to be handed out again
+    private ByteBuffer[] views = new ByteBuffer[4];
+    private int viewCount = 0;
+    //references still held, the frame is free at 0
+    private int references = 1;
+
+    /**
+     * Constructor, the frame starts with one reference held by its owner
+     * @param pool the pool the frame goes back to, or null
+     * @param buffer the buffer holding the frame
+     */
+    SharedFrame(FramePool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the buffer to encode the frame into, flipped once it is done
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Takes a reference to the frame for writing it out
+     * @return a view of the whole frame, to be given back to release
+     */
+    synchronized ByteBuffer share() {
+        if (references <= 0) {
+            throw new IllegalStateException("Frame already released");
+        }
+        references++;
+        ByteBuffer view = (viewCount > 0) ? views[--viewCount]
+                : buffer.duplicate();
+        view.limit(buffer.limit());
+        view.position(0);
+        return view;
+    }
+
+    /**
+     * Gives back a reference taken by share
+     * @param view the view share returned
+     */
+    synchronized void release(ByteBuffer view) {
+        if (viewCount == views.length) {
+            views = Arrays.copyOf(views, viewCount * 2);
+        }
+        views[viewCount++] = view;
+        release();
+    }
+
+    /**
+     * Gives back the owner's reference, or one taken by share whose view
+     * is lost
+     */
+    synchronized void release() {
+        if (references <= 0) {
+            throw new IllegalStateException("Frame already released");
+        }
+        references--;
+        if (references == 0 && pool != null) {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Readies a recycled frame for a new owner. Only called by the pool.
+     */
+    synchronized void reuse() {
+        references = 1;
+        buffer.clear();
+    }
+}
@@ -0,0 +1,181 @@
+package Server;
+
+import common.FrameCompressor;
+import common.Galaxy;
+import common.Snapshot;
+import common.SnapshotCodec;
+import common.SnapshotHistory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The snapshots of one galaxy, captured and encoded once a tick for every
+ * player in it. Only the frame header differs between players, so each body
+ * is encoded once and the same bytes are sent to everyone: one keyframe body
+ * for players with no usable baseline, and one delta body for each baseline
+ * acknowledged. Players usually acknowledge the same recent snapshots, so
+ * there are only ever a few bodies however many players there are.
+ *
+ * Players short of bandwidth are sent bodies compressed by a
+ * FrameCompressor instead, also made once per baseline and only when
+ * compressing makes them smaller.
+ *
+ * Only used by the galaxy's send task, one thread at a time. Bodies are
+ * encoded straight into pooled SharedFrames, which players take references
+ * to and write at their own pace; a body goes back to the pool once the
+ * next tick has been captured and every player has finished with it.
+ * @author kjb146 and zjt14
+ */
+class SnapshotBroadcast {
+
+    //the pool every galaxy's bodies are encoded into, keeping up to 4MB of
+    //free frames of each size: thousands of small bodies, one 4MB keyframe
+    static final FramePool FRAMES = new FramePool(4 << 20);
+
+    //snapshots captured, the baselines for the deltas
+    private final SnapshotHistory history = new SnapshotHistory();
+    //the snapshot captured this tick
+    private Snapshot current;
+    //the bodies encoded this tick and the baselines they are against (-1
+    //for the keyframe)
+    private SharedFrame[] bodies = new SharedFrame[4];
+    private int[] baselines = new int[4];
+    private int bodyCount = 0;
+    //the compressed copy of each body, null if not yet made or not smaller,
+    //and whether compressing it has been tried
+    private SharedFrame[] compressed = new SharedFrame[4];
+    private boolean[] compressTried = new boolean[4];
+    //the compressor for this galaxy's bodies
+    private final FrameCompressor compressor =
+            new FrameCompressor(FrameCompressor.DEFAULT_LEVEL);
+    //totals for the metrics
+    private volatile long bodiesEncoded = 0;
+    private volatile long bodiesShared = 0;
+    private volatile long bodiesCompressed = 0;
+    private volatile long bytesSavedByCompression = 0;
+
+    /**
+     * Captures the galaxy for this tick, releasing the last tick's bodies
+     * @param galaxy the galaxy
+     * @param sequence the tick's sequence number
+     */
+    void capture(Galaxy galaxy, int sequence) {
+        current = history.slot(sequence);
+        SnapshotCodec.capture(galaxy, sequence, 0, current);
+        for (int i = 0; i < bodyCount; i++) {
+            bodies[i].release();
+            bodies[i] = null;
+            if (compressed[i] != null) {
+                compressed[i].release();
+                compressed[i] = null;
+            }
+            compressTried[i] = false;
+        }
+        bodyCount = 0;
+    }
+
+    /**
+     * @return the sequence number of the snapshot captured this tick
+     */
+    int getSequence() {
+        return current.getSequence();
+    }
+
+    /**
+     * Gets the body to send a player, encoding it if no other player has
+     * needed it this tick
+     * @param acknowledged the last snapshot the player acknowledged
+     * @param oldest the oldest snapshot the player could have from this
+     * galaxy
+     * @return the body, for the player to share
+     */
+    SharedFrame body(int acknowledged, int oldest) {
+        int sequence = current.getSequence();
+        Snapshot baseline = null;
+        if (acknowledged >= oldest && acknowledged < sequence
+                && sequence - acknowledged < SnapshotHistory.SIZE) {
+            baseline = history.get(acknowledged);
+        }
+        int key = (baseline == null) ? -1 : acknowledged;
+
+        for (int i = 0; i < bodyCount; i++) {
+            if (baselines[i] == key) {
+                bodiesShared++;
+                return bodies[i];
+            }
+        }
+        if (bodyCount == bodies.length) {
+            bodies = Arrays.copyOf(bodies, bodyCount * 2);
+            baselines = Arrays.copyOf(baselines, bodyCount * 2);
+            compressed = Arrays.copyOf(compressed, bodyCount * 2);
+            compressTried = Arrays.copyOf(compressTried, bodyCount * 2);
+        }
+        SharedFrame body = FRAMES.acquire(
+                SnapshotCodec.maxBodySize(current, baseline));
+        SnapshotCodec.encodeBody(current, baseline, body.getBuffer());
+        bodies[bodyCount] = body;
+        baselines[bodyCount] = key;
+        bodyCount++;
+        bodiesEncoded++;
+        return body;
+    }
+
+    /**
+     * Gets the compressed copy of a body, compressing it if no other player
+     * has needed it this tick
+     * @param body a body returned by body() this tick
+     * @return the compressed copy, or the body itself if it is too small to
+     * be worth compressing or compressing does not make it smaller
+     */
+    SharedFrame compressed(SharedFrame body) {
+        int i = 0;
+        while (bodies[i] != body) {
+            i++;
+        }
+        if (!compressTried[i]) {
+            compressTried[i] = true;
+            ByteBuffer raw = body.getBuffer();
+            if (raw.remaining() >= FrameCompressor.MIN_SIZE) {
+                SharedFrame frame = FRAMES.acquire(raw.remaining());
+                if (SnapshotCodec.compressBody(raw, compressor, frame.getBuffer())) {
+                    compressed[i] = frame;
+                    bodiesCompressed++;
+                    bytesSavedByCompression += raw.remaining()
+                            - frame.getBuffer().remaining();
+                } else {
+                    frame.release();
+                }
+            }
+        }
+        return (compressed[i] != null) ? compressed[i] : bodies[i];
+    }
+
+    /**
+     * @return the number of bodies encoded
+     */
+    long getBodiesEncoded() {
+        return bodiesEncoded;
+    }
+
+    /**
+     * @return the number of bodies compressed
+     */
+    long getBodiesCompressed() {
+        return bodiesCompressed;
+    }
+
+    /**
+     * @return the bytes compressing bodies saved, once per body however
+     * many players it was sent to
+     */
+    long getBytesSavedByCompression() {
+        return bytesSavedByCompression;
+    }
+
+    /**
+     * @return the number of times a body was sent without encoding it again
+     */
+    long getBodiesShared() {
+        return bodiesShared;
+    }
+}
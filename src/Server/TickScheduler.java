@@ -0,0 +1,227 @@
+package Server;
+
+import common.Galaxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The single clock driving every galaxy on the server. Each tick it steps all
+ * galaxies in parallel on a fixed pool of worker threads, one per core, waits
+ * for them all, moves any ships that hyperspaced between galaxies, then sends
+ * every player its snapshot, again in parallel. All galaxies therefore tick
+ * together however many there are, and the server runs the same number of
+ * threads for one galaxy or hundreds.
+ *
+ * A tick that takes longer than Galaxy.UPDATE_PERIOD is an overrun;
+ * overruns are counted and logged, and the clock runs the late ticks back to
+ * back so the galaxies catch up rather than drift. Ticks starting more than
+ * a period late are counted too.
+ * @author kjb146 and zjt14
+ */
+public class TickScheduler {
+
+    //number of threads stepping galaxies and sending snapshots
+    public static final int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    //the scheduler, started when the first galaxy is added
+    private static TickScheduler scheduler;
+
+    //the galaxies being ticked
+    private final Collection<GalaxyManager> managers = new CopyOnWriteArrayList<GalaxyManager>();
+    //thread running the clock, and the threads doing the work of each tick
+    private final ScheduledExecutorService clock;
+    private final ExecutorService workers;
+
+    //tick statistics, written only by the clock thread
+    private volatile long ticks = 0;
+    private volatile long overruns = 0;
+    private volatile long lateTicks = 0;
+    private volatile long lastTickNanos = 0;
+    private volatile long maxTickNanos = 0;
+    //when the next tick should start, System.nanoTime() based
+    private long nextTickDue = 0;
+
+    /**
+     * Gets the server wide scheduler, starting it if need be
+     * @return the scheduler
+     */
+    public static synchronized TickScheduler getScheduler() {
+        if (scheduler == null) {
+            scheduler = new TickScheduler();
+        }
+        return scheduler;
+    }
+
+    /**
+     * Private constructor, the scheduler is only created by getScheduler()
+     */
+    private TickScheduler() {
+        clock = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TickScheduler"));
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, new NamedThreadFactory("GalaxyWorker"));
+
+        //Leave a period delay to ensure buffers loaded
+        clock.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+        }, Galaxy.UPDATE_PERIOD, Galaxy.UPDATE_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts ticking a galaxy from the next tick
+     * @param gm the galaxy's manager
+     */
+    void add(GalaxyManager gm) {
+        managers.add(gm);
+    }
+
+    /**
+     * Stops ticking a galaxy
+     * @param gm the galaxy's manager
+     */
+    void remove(GalaxyManager gm) {
+        managers.remove(gm);
+    }
+
+    /**
+     * Runs one tick: steps every galaxy, then sends every snapshot
+     */
+    private void tick() {
+        long start = System.nanoTime();
+        long period = TimeUnit.MILLISECONDS.toNanos(Galaxy.UPDATE_PERIOD);
+        if (ticks == 0) {
+            nextTickDue = start;
+        }
+        if (start - nextTickDue > period) {
+            lateTicks++;
+        }
+        nextTickDue += period;
+
+        List<Callable<Object>> steps = new ArrayList<Callable<Object>>(managers.size());
+        List<Callable<Object>> sends = new ArrayList<Callable<Object>>(managers.size());
+        for (GalaxyManager gm : managers) {
+            steps.add(gm.getStepTask());
+            sends.add(gm.getSendTask());
+        }
+        runAll(steps);
+        //jumps between galaxies, one at a time while none are running
+        for (GalaxyManager gm : managers) {
+            gm.resolveRequests();
+        }
+        runAll(sends);
+
+        long time = System.nanoTime() - start;
+        lastTickNanos = time;
+        maxTickNanos = Math.max(maxTickNanos, time);
+        ticks++;
+        ServerMetrics.TICK.record(time);
+        if (time > period) {
+            overruns++;
+            Logger.getLogger("Server").log(Level.WARNING,
+                    "Tick overran by {0} ms with {1} galaxies",
+                    new Object[]{(time / 1000000) - Galaxy.UPDATE_PERIOD, steps.size()});
+        }
+    }
+
+    /**
+     * Runs tasks on the worker threads and waits for all of them to finish
+     * @param tasks the tasks to run
+     */
+    private void runAll(List<Callable<Object>> tasks) {
+        try {
+            for (Future<Object> result : workers.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException ex) {
+                    Logger.getLogger("Server").log(Level.SEVERE, "Galaxy tick failed", ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of galaxies being ticked
+     */
+    public int getGalaxyCount() {
+        return managers.size();
+    }
+
+    /**
+     * @return the number of ticks run
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the number of ticks that took longer than the update period
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the number of ticks that started more than a period late
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * @return the time taken by the last tick in nanoseconds
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * @return the time taken by the slowest tick in nanoseconds
+     */
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    /**
+     * Creates numbered daemon threads, so the scheduler never holds the
+     * server open by itself
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        //prefix of every thread name
+        private final String name;
+        //number of the next thread
+        private final AtomicInteger number = new AtomicInteger();
+
+        /**
+         * Constructor
+         * @param name prefix of every thread name
+         */
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + number.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -22,6 +22,15 @@ public class ClientInput implements Serializable {
     private boolean exit = false;
     private boolean restart = false;
 
+    //The sequence number of the last galaxy snapshot received, -1 to ask
+    //the server for a keyframe
+    private int acknowledged = -1;
+
+    //The sequence number of this input, counting up from 1 as inputs are sent
+    private int sequence = 0;
+    //The client tick this input was made on, counting up from 1
+    private int tick = 0;
+
     /**
      * Uses the KeyMapper to poll the keyboard detecting all key changes
      * @param keyMapper the keyMapper to poll (note passed in rather then
@@ -142,4 +151,100 @@ public class ClientInput implements Serializable {
     public boolean getRestart() {
         return restart;
     }
+
+    /**
+     * @param pressed the state of the key bound to turn left
+     */
+    public void setLeft(boolean pressed) {
+        left = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to turn right
+     */
+    public void setRight(boolean pressed) {
+        right = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to forwards
+     */
+    public void setForward(boolean pressed) {
+        forward = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to fire
+     */
+    public void setFire(boolean pressed) {
+        fire = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to hyperspace jump
+     */
+    public void setJump(boolean pressed) {
+        jump = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to exit
+     */
+    public void setExit(boolean pressed) {
+        exit = pressed;
+    }
+
+    /**
+     * @param pressed the state of the key bound to restart
+     */
+    public void setRestart(boolean pressed) {
+        restart = pressed;
+    }
+
+    /**
+     * @return the sequence number of the last snapshot the client received,
+     * -1 if it has none the server can encode deltas against
+     */
+    public int getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Records the last snapshot received, so the server can encode the next
+     * one as a delta against it
+     * @param sequence the snapshot's sequence number, -1 to ask for a keyframe
+     */
+    public void setAcknowledged(int sequence) {
+        acknowledged = sequence;
+    }
+
+    /**
+     * @return the sequence number of this input, so the server can ignore
+     * inputs older than one it has acted on
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param sequence the sequence number of this input
+     */
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return the client tick this input was made on, echoed back in the
+     * snapshots once the server has applied it
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * @param tick the client tick this input was made on
+     */
+    public void setTick(int tick) {
+        this.tick = tick;
+    }
 }
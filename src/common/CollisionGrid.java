@@ -0,0 +1,161 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid broad phase used by the galaxy to find colliding SpaceMasses.
+ * Every SpaceMass is hashed into a cell sized from the largest radius in the
+ * galaxy, so only SpaceMasses in the same or neighbouring cells can possibly
+ * touch and only those pairs reach the exact circle test. The grid is rebuilt
+ * each step over the slots of the galaxy's EntityStore so a galaxy full of
+ * missiles costs roughly linear time rather than testing every pair.
+ * @author kjb146 and zjt14
+ */
+class CollisionGrid {
+
+    //initial number of slots the grid can link before growing
+    private static final int INITIAL_CAPACITY = 64;
+
+    //the store being tested this step
+    private EntityStore store;
+    //the next slot in the same cell, -1 terminates the chain
+    private int[] next = new int[INITIAL_CAPACITY];
+    //the first slot in each cell, -1 if the cell is empty
+    private int[] cellHead = new int[0];
+
+    //current grid layout
+    private double cellSize;
+    private int columns;
+    private int rows;
+
+    /**
+     * Detects every pair of intersecting SpaceMasses and damages both of them.
+     * Assumes all objects are circles.
+     * @param store the store holding the SpaceMasses to test
+     */
+    public void processCollisions(EntityStore store) {
+        if (store.count() < 2) {
+            return;
+        }
+        load(store);
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                for (int a = cellHead[cell]; a != -1; a = next[a]) {
+                    //rest of the same cell
+                    testChain(a, next[a]);
+
+                    //forward neighbours only so each pair is tested once
+                    testCell(a, column + 1, row);
+                    testCell(a, column - 1, row + 1);
+                    testCell(a, column, row + 1);
+                    testCell(a, column + 1, row + 1);
+                }
+            }
+        }
+
+        this.store = null;
+    }
+
+    /**
+     * Links every slot in use into its cell
+     * @param store the store holding the SpaceMasses
+     */
+    private void load(EntityStore store) {
+        this.store = store;
+        int size = store.size();
+        if (next.length < size) {
+            next = new int[Math.max(size, next.length * 2)];
+        }
+
+        int maxRadius = 1;
+        for (int i = 0; i < size; i++) {
+            if (store.owner[i] != null) {
+                maxRadius = Math.max(maxRadius, store.radius[i]);
+            }
+        }
+
+        //any two touching circles are at most two of the largest radii apart,
+        //so they must lie in the same or an adjacent cell
+        resize(2 * maxRadius);
+
+        for (int i = 0; i < size; i++) {
+            if (store.owner[i] == null) {
+                continue;
+            }
+            int cell = cellRow(store.y[i]) * columns + cellColumn(store.x[i]);
+            next[i] = cellHead[cell];
+            cellHead[cell] = i;
+        }
+    }
+
+    /**
+     * Lays the grid out over the galaxy using the given cell size
+     * @param size the width and height of each cell
+     */
+    private void resize(double size) {
+        cellSize = size;
+        columns = Math.max(1, (int) Math.ceil(Galaxy.SIZE.width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(Galaxy.SIZE.height / cellSize));
+
+        if (cellHead.length < columns * rows) {
+            cellHead = new int[columns * rows];
+        }
+        Arrays.fill(cellHead, 0, columns * rows, -1);
+    }
+
+    /**
+     * SpaceMass.setLocation wraps objects back inside the galaxy before they
+     * can leave it and the exact test does not measure across the wrapped
+     * edges, so cells are clamped to the galaxy rather than wrapped.
+     * @param x the x position
+     * @return the column containing x
+     */
+    private int cellColumn(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) (x / cellSize)));
+    }
+
+    /**
+     * @param y the y position
+     * @return the row containing y
+     */
+    private int cellRow(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) (y / cellSize)));
+    }
+
+    /**
+     * Tests a slot against every slot in the given cell
+     * @param a the slot to test
+     * @param column the column of the cell, may be outside the grid
+     * @param row the row of the cell, may be outside the grid
+     */
+    private void testCell(int a, int column, int row) {
+        if (column < 0 || column >= columns || row >= rows) {
+            return;
+        }
+        testChain(a, cellHead[row * columns + column]);
+    }
+
+    /**
+     * Tests a slot against a chain of slots
+     * @param a the slot to test
+     * @param b the first slot of the chain
+     */
+    private void testChain(int a, int b) {
+        double[] x = store.x;
+        double[] y = store.y;
+        int[] radii = store.radius;
+        for (; b != -1; b = next[b]) {
+            double dx = x[a] - x[b];
+            double dy = y[a] - y[b];
+            double radius = radii[a] + radii[b];
+
+            //if circles of SpaceMasses intersect damage them
+            if ((dx * dx + dy * dy) < (radius * radius)) {
+                store.owner[a].damage();
+                store.owner[b].damage();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock free queue of InputCommands with many producers and one consumer.
+ * Any number of socket threads offer commands, each with a single atomic
+ * swap of the tail, and only the galaxy's update polls them, so neither side
+ * ever blocks the other. The commands are linked through their own next
+ * field, so queuing allocates nothing beyond the command.
+ *
+ * A command being offered at the same moment as a poll may not be seen
+ * until the following poll; it is then applied on the next tick.
+ * @author kjb146 and zjt14
+ */
+public class CommandQueue {
+
+    //the last command polled (or a placeholder), the queue starts after it
+    private InputCommand head = new InputCommand(null, 0, 0);
+    //the last command offered
+    private final AtomicReference<InputCommand> tail =
+            new AtomicReference<InputCommand>(head);
+
+    /**
+     * Adds a command to the end of the queue. Safe from any thread.
+     * @param command the command, not already queued
+     */
+    public void offer(InputCommand command) {
+        command.next = null;
+        InputCommand previous = tail.getAndSet(command);
+        previous.next = command;
+    }
+
+    /**
+     * Removes the command at the front of the queue. Only to be called by
+     * the single consuming thread.
+     * @return the command, or null if the queue is empty
+     */
+    public InputCommand poll() {
+        InputCommand next = head.next;
+        if (next == null) {
+            return null;
+        }
+        head = next;
+        return next;
+    }
+}
@@ -36,7 +36,7 @@ public class Debris extends SpaceMass {
     private int explosion = 0;
 
     //the id of the ship that turned into the debris
-    private int debrisID;
+    private long debrisID;
 
     //the health of the debris
     private int health = INIT_HEALTH;
@@ -50,11 +50,19 @@ public class Debris extends SpaceMass {
      * @param vel the debris initial velocity
      * @param id the id of the SpaceMass the debris were formed from
      */
-    public Debris(Point2d pos, Vector2d vel, int id) {
+    public Debris(Point2d pos, Vector2d vel, long id) {
         super(DEBRIS_RADIUS, pos, vel);
         debrisID = id;
     }
 
+    /**
+     * @return the type code for debris
+     */
+    @Override
+    public int getType() {
+        return TYPE_DEBRIS;
+    }
+
     /**
      * reduces the health of the debris. If the health = 0 it destroys them
      */
@@ -67,12 +75,10 @@ public class Debris extends SpaceMass {
     }
 
     /**
-     * debris both move and tumble end over end
+     * debris tumble end over end as they move
      */
     @Override
-    public void stepTime() {
-        super.stepTime();
-
+    protected void stepState() {
         //tumble debris
         tumble += DEBRIS_TUMBLE_SPEED ;
         this.setHeading(this.getHeading() + DEBRIS_SPIN_SPEED );
@@ -104,7 +110,7 @@ public class Debris extends SpaceMass {
     /**
      * @return id of the ship that was turned into debris
      */
-    public int getDebrisID(){
+    public long getDebrisID(){
         return debrisID;
     }
 
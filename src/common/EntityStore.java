@@ -0,0 +1,181 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for the state of every SpaceMass in a galaxy.
+ * Position, velocity, heading, radius, type and id are held in packed
+ * primitive arrays indexed by slot, and each SpaceMass acts as a handle onto
+ * its slot while it is in the galaxy. This keeps the per-step physics as
+ * straight loops over arrays rather than virtual calls over separate objects.
+ * Freed slots are kept on a free-list and reused by the next SpaceMass added.
+ * @author kjb146 and zjt14
+ */
+class EntityStore {
+
+    //initial number of slots
+    private static final int INITIAL_CAPACITY = 64;
+    //times each source pulls each mass a step. The galaxy used to call
+    //SpaceMass.gravitate for every ordered pair, which pulls the mass from
+    //both ends of the pair, and the game is tuned to that strength
+    static final double PULLS_PER_SOURCE = 2;
+
+    //kinematic state of each slot
+    double[] x = new double[INITIAL_CAPACITY];
+    double[] y = new double[INITIAL_CAPACITY];
+    double[] vx = new double[INITIAL_CAPACITY];
+    double[] vy = new double[INITIAL_CAPACITY];
+    double[] heading = new double[INITIAL_CAPACITY];
+    double[] gravity = new double[INITIAL_CAPACITY];
+    //fixed properties of each slot
+    int[] radius = new int[INITIAL_CAPACITY];
+    int[] type = new int[INITIAL_CAPACITY];
+    long[] id = new long[INITIAL_CAPACITY];
+    //the SpaceMass using each slot, null if the slot is free
+    SpaceMass[] owner = new SpaceMass[INITIAL_CAPACITY];
+
+    //one past the highest slot ever used
+    private int size = 0;
+    //number of slots currently in use
+    private int count = 0;
+    //stack of freed slots below size
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+
+    //slots of the gravity sources gathered each step
+    private int[] sources = new int[INITIAL_CAPACITY];
+
+    /**
+     * Adds a SpaceMass to the store, moving its state into a free slot
+     * @param sm the SpaceMass to add
+     */
+    public void add(SpaceMass sm) {
+        if (sm.isAttached()) {
+            return;
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (size == owner.length) {
+                grow();
+            }
+            slot = size++;
+        }
+        owner[slot] = sm;
+        count++;
+        sm.attach(this, slot);
+    }
+
+    /**
+     * Removes a SpaceMass from the store, moving its state back into it
+     * @param sm the SpaceMass to remove
+     */
+    public void remove(SpaceMass sm) {
+        int slot = sm.getSlot();
+        if (!sm.isAttachedTo(this)) {
+            return;
+        }
+        sm.detach();
+        owner[slot] = null;
+        count--;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * @return one past the highest slot in use, slots below this may be free
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of SpaceMasses in the store
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Pulls every mobile slot towards every gravity source using the
+     * inverse-square law a = GM/r^2, applied PULLS_PER_SOURCE times. Only
+     * slots with a non-zero gravity constant (in practice stars) are
+     * visited as sources. A galaxy has at most four stars, and summing them
+     * directly costs less than sampling a precomputed field would.
+     */
+    public void gravitate() {
+
+        //gather the gravity sources
+        int sourceCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (owner[i] != null && gravity[i] != 0) {
+                if (sourceCount == sources.length) {
+                    sources = Arrays.copyOf(sources, sourceCount * 2);
+                }
+                sources[sourceCount++] = i;
+            }
+        }
+        if (sourceCount == 0) {
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            //stars never move so there is no point accelerating them
+            if (owner[i] == null || type[i] == SpaceMass.TYPE_STAR) {
+                continue;
+            }
+            double ax = 0;
+            double ay = 0;
+
+            for (int s = 0; s < sourceCount; s++) {
+                int j = sources[s];
+                if (j == i) {
+                    continue; //Dont gravitate to self
+                }
+                double dx = x[j] - x[i];
+                double dy = y[j] - y[i];
+                double r2 = dx * dx + dy * dy;
+                // a = GM/r^2 along the unit vector towards the source
+                double scale = gravity[j] / (r2 * Math.sqrt(r2));
+                ax += dx * scale;
+                ay += dy * scale;
+            }
+            vx[i] += PULLS_PER_SOURCE * ax;
+            vy[i] += PULLS_PER_SOURCE * ay;
+        }
+    }
+
+    /**
+     * Moves every mobile slot by its velocity, wrapping it back into the
+     * galaxy if it leaves it. Assumes uniform timestep.
+     */
+    public void integrate() {
+        for (int i = 0; i < size; i++) {
+            if (owner[i] == null || type[i] == SpaceMass.TYPE_STAR) {
+                continue;
+            }
+            x[i] = SpaceMass.wrap(x[i] + vx[i], radius[i], Galaxy.SIZE.width);
+            y[i] = SpaceMass.wrap(y[i] + vy[i], radius[i], Galaxy.SIZE.height);
+        }
+    }
+
+    /**
+     * Doubles the number of slots available
+     */
+    private void grow() {
+        int capacity = owner.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        heading = Arrays.copyOf(heading, capacity);
+        gravity = Arrays.copyOf(gravity, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        type = Arrays.copyOf(type, capacity);
+        id = Arrays.copyOf(id, capacity);
+        owner = Arrays.copyOf(owner, capacity);
+    }
+}
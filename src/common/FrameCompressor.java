@@ -0,0 +1,218 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates and inflates snapshot bodies, primed with a preset dictionary of
+ * byte strings common in recorded snapshot traffic so even small frames
+ * compress. The dictionary is the snapshot.dict resource next to this
+ * class, built by DictionaryTrainer in the benchmarks; both ends must hold
+ * the same one, which zlib checks.
+ *
+ * Each compressor reuses its zlib streams and buffers for every frame, so
+ * it must only be used by one thread at a time.
+ * @author kjb146 and zjt14
+ */
+public class FrameCompressor {
+
+    //the preset dictionary, empty if the resource is missing
+    private static final byte[] DICTIONARY = loadDictionary();
+
+    //the compression level used unless another is asked for
+    public static final int DEFAULT_LEVEL = 1;
+    //bodies smaller than this are not worth compressing
+    public static final int MIN_SIZE = 256;
+
+    //the compression level frames are deflated at, and the dictionary
+    private final int level;
+    private final byte[] dictionary;
+    //the zlib streams, created when first needed
+    private Deflater deflater;
+    private Inflater inflater;
+    //reused buffers frames are copied through
+    private byte[] input = new byte[4096];
+    private byte[] deflated = new byte[4096];
+    private byte[] output = new byte[4096];
+    private ByteBuffer inflated = ByteBuffer.wrap(output);
+
+    /**
+     * Constructor, using the preset dictionary
+     * @param level the Deflater level to compress at, 1 to 9
+     */
+    public FrameCompressor(int level) {
+        this(level, DICTIONARY);
+    }
+
+    /**
+     * Constructor
+     * @param level the Deflater level to compress at, 1 to 9
+     * @param dictionary the dictionary to use, empty for none
+     */
+    public FrameCompressor(int level, byte[] dictionary) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Deflates bytes into a buffer, if that makes them smaller
+     * @param in the bytes to deflate, left unchanged
+     * @param out the buffer to put the deflated bytes in
+     * @return false if deflating did not make them smaller or they did not
+     * fit, in which case out's contents are undefined
+     */
+    public boolean deflate(ByteBuffer in, ByteBuffer out) {
+        int length = in.remaining();
+        if (input.length < length) {
+            input = new byte[Math.max(length, input.length * 2)];
+        }
+        int position = in.position();
+        in.get(input, 0, length);
+        in.position(position);
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        deflater.reset();
+        if (dictionary.length > 0) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+
+        //stop as soon as the deflated bytes are no smaller
+        int limit = Math.min(length - 1, out.remaining());
+        if (deflated.length < limit) {
+            deflated = new byte[Math.max(limit, deflated.length * 2)];
+        }
+        int size = 0;
+        while (!deflater.finished() && size < limit) {
+            size += deflater.deflate(deflated, size, limit - size);
+        }
+        if (!deflater.finished()) {
+            return false;
+        }
+        out.put(deflated, 0, size);
+        return true;
+    }
+
+    /**
+     * Inflates the rest of a buffer
+     * @param in the deflated bytes, read to the end
+     * @param length the number of bytes they inflate to
+     * @return a buffer holding the inflated bytes, reused by the next call
+     * @throws IOException if the bytes are corrupt, deflated with another
+     * dictionary or do not inflate to the given length
+     */
+    public ByteBuffer inflate(ByteBuffer in, int length) throws IOException {
+        if (length < 0 || length > SnapshotCodec.MAX_FRAME_SIZE) {
+            throw new IOException("Invalid inflated length " + length);
+        }
+        int size = in.remaining();
+        if (input.length < size) {
+            input = new byte[Math.max(size, input.length * 2)];
+        }
+        in.get(input, 0, size);
+        //a byte to spare, to notice frames inflating to more than length
+        if (output.length < length + 1) {
+            output = new byte[Math.max(length + 1, output.length * 2)];
+            inflated = ByteBuffer.wrap(output);
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(input, 0, size);
+        try {
+            int done = 0;
+            while (done <= length && !inflater.finished()) {
+                int n = inflater.inflate(output, done, length + 1 - done);
+                if (n == 0 && inflater.needsDictionary()) {
+                    if (dictionary.length == 0) {
+                        throw new IOException("Frame needs a dictionary this end does not have");
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                done += n;
+            }
+            if (done != length || !inflater.finished()) {
+                throw new IOException("Compressed frame inflated to the wrong length");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt compressed frame: " + ex.getMessage());
+        } catch (IllegalArgumentException ex) {
+            //thrown by setDictionary for the wrong dictionary
+            throw new IOException("Frame compressed with a different dictionary");
+        }
+        inflated.clear();
+        inflated.limit(length);
+        return inflated;
+    }
+
+    /**
+     * Frees the zlib streams' native memory. The compressor can still be
+     * used afterwards, and creates new ones.
+     */
+    public void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * @return the number of bytes in the preset dictionary, 0 if it is missing
+     */
+    public static int getDictionarySize() {
+        return DICTIONARY.length;
+    }
+
+    /**
+     * Reads the preset dictionary from the snapshot.dict resource
+     * @return the dictionary, empty if it cannot be read
+     */
+    private static byte[] loadDictionary() {
+        InputStream in = FrameCompressor.class.getResourceAsStream("snapshot.dict");
+        if (in == null) {
+            Logger.getLogger(FrameCompressor.class.getName()).log(Level.WARNING,
+                    "No snapshot.dict, compressing without a dictionary");
+            return new byte[0];
+        }
+        try {
+            byte[] dictionary = new byte[32 * 1024];
+            int size = 0;
+            int n;
+            while (size < dictionary.length
+                    && (n = in.read(dictionary, size, dictionary.length - size)) > 0) {
+                size += n;
+            }
+            byte[] exact = new byte[size];
+            System.arraycopy(dictionary, 0, exact, 0, size);
+            return exact;
+        } catch (IOException ex) {
+            Logger.getLogger(FrameCompressor.class.getName()).log(Level.WARNING,
+                    "Could not read snapshot.dict, compressing without a dictionary", ex);
+            return new byte[0];
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                //nothing more to read anyway
+            }
+        }
+    }
+}
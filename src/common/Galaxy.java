@@ -2,11 +2,13 @@ package common;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Random;
+import java.util.List;
 import javax.vecmath.Point2d;
 
 /**
@@ -19,6 +21,8 @@ public class Galaxy implements Serializable {
 
     //Default size 1024x768
     public static final Dimension SIZE = new Dimension(1024, 768);
+    //time between updates in milliseconds (Period = 1000/frequency)
+    public static final int UPDATE_PERIOD = 50;
     
     //The maxumum number of stars a galaxy can have
     private static final int MAX_STARS = 4;
@@ -29,16 +33,33 @@ public class Galaxy implements Serializable {
     //Number of times to try find a safe place to spawn new objects
     private static final int SPAWN_ATTEMPTS = 100;
     
-    // Tracks all allSpaceMasses currently in the galaxy.
-    private Collection<SpaceMass> allSpaceMasses =
-            Collections.synchronizedList(new ArrayList<SpaceMass>());
+    // Holds the state of all spaceMasses currently in the galaxy.
+    private transient EntityStore store = new EntityStore();
+    //the seed the galaxy was built from, the same seed builds the same galaxy
+    private final long seed;
+    //random numbers for building the galaxy and spawning in it (server side only)
+    private final transient XorShiftRandom random;
     //a random bright color for the stars in the galaxy to be
-    private final Color starColor =
-            new Color(Color.HSBtoRGB(new Random().nextFloat(), 1, 1));
+    private final Color starColor;
     //assigns a random background to the galaxy
-    private final int backNum = new Random().nextInt(7);
+    private final int backNum;
     //This is a reference for the end user of who is using the galaxy.
-    private int playerID = 0;
+    private long playerID = 0;
+    //broad phase used to find colliding spaceMasses (server side only)
+    private final transient CollisionGrid collisionGrid = new CollisionGrid();
+    //spaceMasses found dead during a step (server side only)
+    private final transient ArrayList<SpaceMass> deadObjects =
+            new ArrayList<SpaceMass>();
+    //time taken by each phase of the last update in nanoseconds
+    private transient volatile long stepTimeNanos;
+    private transient volatile long collisionNanos;
+    //inputs waiting to be applied at the start of the next update
+    private final transient CommandQueue commands = new CommandQueue();
+    //jumps and restarts waiting for the galaxy's manager (server side only)
+    private final transient ArrayList<InputCommand> requests =
+            new ArrayList<InputCommand>();
+    //number of updates run
+    private transient volatile long tick;
 
     
 
@@ -46,12 +67,27 @@ public class Galaxy implements Serializable {
      * Constructor for the galaxy spawns up to 5 suns at random locations
      */
     public Galaxy() {
+        this(XorShiftRandom.newSeed());
+    }
+
+    /**
+     * Constructor for a reproducible galaxy, spawns up to 5 suns at random
+     * locations. Galaxies built from the same seed and given the same inputs
+     * play out identically.
+     * @param seed the seed of every random choice made by the galaxy
+     */
+    public Galaxy(long seed) {
+        this.seed = seed;
+        random = new XorShiftRandom(seed);
+        starColor = new Color(Color.HSBtoRGB(random.nextFloat(), 1, 1));
+        backNum = random.nextInt(7);
+
         //number of stars
-        int stars = new Random().nextInt(MAX_STARS + 1);
+        int stars = random.nextInt(MAX_STARS + 1);
 
         //places stars of random size in galaxy
         for (int i = 0; i < stars; i++) {
-            int radius = new Random().nextInt(STAR_SIZE_RANGE) + MIN_STAR_SIZE;
+            int radius = random.nextInt(STAR_SIZE_RANGE) + MIN_STAR_SIZE;
             
             //ensures stars are not colliding
             Point2d spawnPoint = safeSpawn(radius);
@@ -64,10 +100,111 @@ public class Galaxy implements Serializable {
      * Respond to a timer event by updating the game state.
      */
     public synchronized void update() {
+        long start = System.nanoTime();
+        //applies the inputs received since the last update
+        applyCommands();
         //moves all the objects
         stepTime();
+        long stepped = System.nanoTime();
         //checks and deals with any collisions
         processCollisions();
+        stepTimeNanos = stepped - start;
+        collisionNanos = System.nanoTime() - stepped;
+        tick++;
+    }
+
+    /**
+     * Queues a player's input to be applied at the start of the next update.
+     * Safe to call from any thread, and never waits for the galaxy.
+     * @param command the input
+     */
+    public void submit(InputCommand command) {
+        commands.offer(command);
+    }
+
+    /**
+     * Hands over the jumps and restarts asked for by inputs applied so far,
+     * which move ships between galaxies and so are left to the caller
+     * @param out the list to add the requests to
+     */
+    public synchronized void drainRequests(List<InputCommand> out) {
+        out.addAll(requests);
+        requests.clear();
+    }
+
+    /**
+     * @return the number of updates run, inputs are stamped with it
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Applies every queued input, then steers every ship. Players only send
+     * when their buttons change, so a ship keeps the buttons of its last
+     * input until the next. Each ship's inputs since the last update are
+     * combined, so a ship is steered once an update however often its
+     * player sends. Inputs for ships no longer in this galaxy are ignored,
+     * as another galaxy's thread now owns them, except for restarts from
+     * ships that died here.
+     */
+    private void applyCommands() {
+        InputCommand command;
+        while ((command = commands.poll()) != null) {
+            Spacecraft ship = command.getShip();
+            if (!ship.isAttachedTo(store) || ship.isDead()) {
+                //a dead ship is in no galaxy, and only its own player's
+                //galaxy acts on its restart
+                if (ship.isDead() && command.isHeld(InputCommand.RESTART)) {
+                    requests.add(command);
+                }
+                continue;
+            }
+            if ((command.getButtons() & InputCommand.REQUESTS) != 0) {
+                requests.add(command);
+            }
+            ship.command(command.getButtons(), command.getClientTick());
+        }
+
+        for (int slot = 0; slot < store.size(); slot++) {
+            if (store.owner[slot] == null
+                    || store.type[slot] != SpaceMass.TYPE_SPACECRAFT) {
+                continue;
+            }
+            Spacecraft ship = (Spacecraft) store.owner[slot];
+            int buttons = ship.nextButtons();
+            if (ship.isDead()) {
+                continue;
+            }
+            if ((buttons & InputCommand.FIRE) != 0) {
+                ship.fire(this);
+            }
+            if ((buttons & InputCommand.FORWARD) != 0) {
+                ship.thrust();
+            }
+            if ((buttons & InputCommand.LEFT) != 0) {
+                ship.counterClockwise();
+            }
+            if ((buttons & InputCommand.RIGHT) != 0) {
+                ship.clockwise();
+            }
+        }
+    }
+
+    /**
+     * @return the time the last update spent moving spaceMasses, in
+     * nanoseconds
+     */
+    public long getStepTimeNanos() {
+        return stepTimeNanos;
+    }
+
+    /**
+     * @return the time the last update spent processing collisions, in
+     * nanoseconds
+     */
+    public long getCollisionNanos() {
+        return collisionNanos;
     }
 
     /**
@@ -75,7 +212,7 @@ public class Galaxy implements Serializable {
      * @param spaceMass the spaceMass to add
      */
     public synchronized void addSpaceMass(SpaceMass spaceMass) {
-        allSpaceMasses.add(spaceMass);
+        store.add(spaceMass);
     }
 
     /**
@@ -83,40 +220,65 @@ public class Galaxy implements Serializable {
      * @param spaceMass the spaceMass to remove
      */
     public synchronized void removeSpaceMass(SpaceMass spaceMass) {
-        allSpaceMasses.remove(spaceMass);
+        store.remove(spaceMass);
     }
 
     /**
      * provides a collection of all the spaceMasses in the galaxy
-     * @return a collection of all the spaceMasses in the galaxy
+     * @return a copy of the collection of all the spaceMasses in the galaxy
      */
     public synchronized Collection<SpaceMass> getAllSpaceMasses() {
+        Collection<SpaceMass> allSpaceMasses =
+                new ArrayList<SpaceMass>(store.count());
+        for (int i = 0; i < store.size(); i++) {
+            if (store.owner[i] != null) {
+                allSpaceMasses.add(store.owner[i]);
+            }
+        }
         return allSpaceMasses;
     }
 
+    /**
+     * @return the number of spaceMasses in the galaxy
+     */
+    public synchronized int getEntityCount() {
+        return store.count();
+    }
+
+    /**
+     * @return the store holding the state of every spaceMass in the galaxy,
+     * only to be used while synchronized on the galaxy
+     */
+    EntityStore getStore() {
+        return store;
+    }
+
     /**
      * finds a random safe location for a ship to spawn
      * @return the safe spawn location
      */
     public synchronized Point2d safeSpawn(int radius) {
 
-        Random randGen = new Random();
         Point2d spawnPoint = new Point2d();
 
         //loop until safe location found or it fails 100 times in a row
         for (int i = 0; i < SPAWN_ATTEMPTS; i++) {
             //find a random point
-            spawnPoint = new Point2d(randGen.nextInt(SIZE.width),
-                    randGen.nextInt(SIZE.height));
+            spawnPoint.set(random.nextInt(SIZE.width),
+                    random.nextInt(SIZE.height));
 
             //see if its safe
             boolean safe = true;
 
-            for (SpaceMass sm : allSpaceMasses) {
-                double distance = sm.getLocation().distance(spawnPoint);
-                double minDist = sm.getRadius() + radius;
+            for (int j = 0; j < store.size() && safe; j++) {
+                if (store.owner[j] == null) {
+                    continue;
+                }
+                double dx = store.x[j] - spawnPoint.x;
+                double dy = store.y[j] - spawnPoint.y;
+                double minDist = store.radius[j] + radius;
 
-                if (distance < minDist) {
+                if ((dx * dx + dy * dy) < (minDist * minDist)) {
                     safe = false;
                 }
             }
@@ -133,26 +295,7 @@ public class Galaxy implements Serializable {
      * Detects and deals with any collisions. Assumes all objects are circles
      */
     private void processCollisions() {
-        //temp collection created to prevent objects being itterated ovr twice
-        Collection<SpaceMass> temp = new ArrayList<SpaceMass>(allSpaceMasses);
-
-        //for each SpaceMass in galaxy
-        for (SpaceMass sm1 : allSpaceMasses) {
-            //removes SpaceMass to prevent double ups
-            temp.remove(sm1);
-
-            //check against rest of SpaceMasses
-            for (SpaceMass sm2 : temp) {
-                double distance = sm1.getLocation().distance(sm2.getLocation());
-                double radius = sm1.getRadius() + sm2.getRadius();
-
-                //if circles of SpaceMasses intersect damage them
-                if ((distance < radius) && !sm1.equals(sm2)) {
-                    sm1.damage();
-                    sm2.damage();
-                }
-            }
-        }
+        collisionGrid.processCollisions(store);
     }
 
     /**
@@ -160,19 +303,17 @@ public class Galaxy implements Serializable {
      */
     private void stepTime() {
 
-        for (SpaceMass mass1 : allSpaceMasses) {
-            for (SpaceMass mass2 : allSpaceMasses) {
-                if (mass1 == mass2) {
-                    continue; //Dont gravitate to self (not really required)
-                }
-                mass1.gravitate(mass2);
-            }
-        }
+        //moves everything as straight loops over the store
+        store.gravitate();
+        store.integrate();
 
-        // Update positions and mark all dead objects
-        ArrayList<SpaceMass> deadObjects = new ArrayList<SpaceMass>();
-        for (SpaceMass sm : allSpaceMasses) {
-            sm.stepTime();
+        // Update remaining state and mark all dead objects
+        for (int i = 0; i < store.size(); i++) {
+            SpaceMass sm = store.owner[i];
+            if (sm == null) {
+                continue;
+            }
+            sm.stepState();
             if (sm.isDead()) {
                 deadObjects.add(sm);
             }
@@ -183,24 +324,57 @@ public class Galaxy implements Serializable {
             if (sm instanceof Spacecraft) {
                 Debris tempDebris =
                         new Debris(sm.getLocation(), sm.getVelocity(), sm.id);
-                allSpaceMasses.add(tempDebris);
+                store.add(tempDebris);
             }
             removeSpaceMass(sm);
         }
+        deadObjects.clear();
+    }
+
+    /**
+     * Writes the galaxy and every spaceMass in it
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    private synchronized void writeObject(ObjectOutputStream out)
+            throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(store.count());
+        for (int i = 0; i < store.size(); i++) {
+            if (store.owner[i] != null) {
+                out.writeObject(store.owner[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the galaxy and rebuilds the store from the spaceMasses in it
+     * @param in the stream to read from
+     * @throws IOException if the stream cannot be read
+     * @throws ClassNotFoundException if a spaceMass class is unknown
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        store = new EntityStore();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            store.add((SpaceMass) in.readObject());
+        }
     }
 
     /**
      * Sets the player id so the client knows who their ship is
      * @param playerID the id of the players ship
      */
-    public synchronized void setPlayerID(int playerID) {
+    public synchronized void setPlayerID(long playerID) {
         this.playerID = playerID;
     }
 
     /**
      * @return the ID of the players ship 
      */
-    public int getPlayerID() {
+    public long getPlayerID() {
         return playerID;
     }
 
@@ -211,6 +385,13 @@ public class Galaxy implements Serializable {
         return starColor;
     }
 
+    /**
+     * @return the seed the galaxy was built from
+     */
+    public long getSeed() {
+        return seed;
+    }
+
     /**
      * @return the number of the background to use for this galaxy
      */
@@ -0,0 +1,134 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames the ClientInputs sent from each client to the server. Every frame
+ * is the same FRAME_SIZE bytes: one byte of buttons (the InputCommand bits
+ * plus EXIT), the input's sequence number, the client tick it was made on
+ * and the last snapshot the client received. With no length or class
+ * description to read, the server can pick whole inputs out of whatever
+ * bytes a non-blocking read has delivered without creating any objects.
+ *
+ * Clients only send when the buttons change, when they need a keyframe,
+ * or every KEEPALIVE_TICKS ticks otherwise. The server keeps applying the
+ * last buttons received until new ones arrive. Clients using the server's
+ * datagram channel also send every tick's input as a datagram, so a lost
+ * datagram is made good a tick later. Each is prefixed by the token the
+ * server sends as the first TOKEN_SIZE bytes of every connection, which
+ * proves the datagram is from the player holding the connection.
+ * @author kjb146 and zjt14
+ */
+public class InputCodec {
+
+    //port the server receives input datagrams on, and sends snapshot
+    //datagrams from
+    public static final int UDP_PORT = 4282;
+    //bytes in every frame
+    public static final int FRAME_SIZE = 1 + 4 + 4 + 4;
+    //bytes in the datagram token
+    public static final int TOKEN_SIZE = 8;
+    //bytes in every datagram, the token then a frame
+    public static final int DATAGRAM_SIZE = TOKEN_SIZE + FRAME_SIZE;
+    //client ticks between inputs sent when nothing has changed
+    public static final int KEEPALIVE_TICKS = 4;
+    //button bit for leaving the game, acted on by the server straight away
+    public static final int EXIT = 64;
+
+    /**
+     * Private constructor, only static methods are provided
+     */
+    private InputCodec() {
+    }
+
+    /**
+     * Packs the buttons held in a client input, including exit
+     * @param input the client input
+     * @return the buttons held, as InputCommand bits plus EXIT
+     */
+    public static int buttons(ClientInput input) {
+        int buttons = InputCommand.buttons(input);
+        if (input.getExit()) {
+            buttons |= EXIT;
+        }
+        return buttons;
+    }
+
+    /**
+     * Encodes a frame holding a client input
+     * @param input the input to send
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the frame, ready to be written out
+     */
+    public static ByteBuffer encode(ClientInput input, ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() < FRAME_SIZE) {
+            buffer = ByteBuffer.allocate(FRAME_SIZE);
+        }
+        buffer.clear();
+        put(input, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a datagram holding a client input
+     * @param token the datagram token the server sent over TCP
+     * @param input the input to send
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the datagram, ready to be sent
+     */
+    public static ByteBuffer encodeDatagram(long token, ClientInput input,
+            ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() < DATAGRAM_SIZE) {
+            buffer = ByteBuffer.allocate(DATAGRAM_SIZE);
+        }
+        buffer.clear();
+        buffer.putLong(token);
+        put(input, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a frame holding a client input
+     * @param input the input to send
+     * @param buffer the buffer to write to
+     */
+    private static void put(ClientInput input, ByteBuffer buffer) {
+        buffer.put((byte) buttons(input));
+        buffer.putInt(input.getSequence());
+        buffer.putInt(input.getTick());
+        buffer.putInt(input.getAcknowledged());
+    }
+
+    /**
+     * Decodes the next whole frame from the bytes received so far
+     * @param in the received bytes, ready to be read. Its position is moved
+     * past the frame if there is a whole one, and left alone otherwise.
+     * @param input the client input to decode into
+     * @return false if a whole frame has not arrived
+     * @throws IOException if the frame is invalid
+     */
+    public static boolean decode(ByteBuffer in, ClientInput input)
+            throws IOException {
+        if (in.remaining() < FRAME_SIZE) {
+            return false;
+        }
+        int buttons = in.get() & 0xFF;
+        if ((buttons & ~(EXIT | (EXIT - 1))) != 0) {
+            throw new IOException("Invalid input buttons " + buttons);
+        }
+        input.setLeft((buttons & InputCommand.LEFT) != 0);
+        input.setRight((buttons & InputCommand.RIGHT) != 0);
+        input.setForward((buttons & InputCommand.FORWARD) != 0);
+        input.setFire((buttons & InputCommand.FIRE) != 0);
+        input.setJump((buttons & InputCommand.JUMP) != 0);
+        input.setRestart((buttons & InputCommand.RESTART) != 0);
+        input.setExit((buttons & EXIT) != 0);
+        input.setSequence(in.getInt());
+        input.setTick(in.getInt());
+        input.setAcknowledged(in.getInt());
+        return true;
+    }
+}
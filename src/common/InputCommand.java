@@ -0,0 +1,122 @@
+package common;
+
+/**
+ * A player's controls for one input, queued by the socket threads on the
+ * galaxy their ship is in and applied by the galaxy's own thread at the
+ * start of its next update. The buttons are packed into one int.
+ * @author kjb146 and zjt14
+ */
+public class InputCommand {
+
+    //bits of the buttons held
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    public static final int FORWARD = 4;
+    public static final int FIRE = 8;
+    public static final int JUMP = 16;
+    public static final int RESTART = 32;
+    //buttons the galaxy cannot act on by itself, handed back to its manager
+    public static final int REQUESTS = JUMP | RESTART;
+
+    //the ship being controlled
+    private final Spacecraft ship;
+    //the buttons held
+    private final int buttons;
+    //the client tick the input was made on, 0 if the client gave none
+    private final int clientTick;
+    //the galaxy tick the input arrived during
+    private final long tick;
+    //the next command in the CommandQueue, null if this is the last
+    volatile InputCommand next;
+
+    /**
+     * Constructor
+     * @param ship the ship being controlled
+     * @param buttons the buttons held
+     * @param tick the galaxy tick the input arrived during
+     */
+    public InputCommand(Spacecraft ship, int buttons, long tick) {
+        this(ship, buttons, 0, tick);
+    }
+
+    /**
+     * Constructor for an input stamped with the client's tick, so the client
+     * can tell from the snapshots when the input has been applied
+     * @param ship the ship being controlled
+     * @param buttons the buttons held
+     * @param clientTick the client tick the input was made on
+     * @param tick the galaxy tick the input arrived during
+     */
+    public InputCommand(Spacecraft ship, int buttons, int clientTick,
+            long tick) {
+        this.ship = ship;
+        this.buttons = buttons;
+        this.clientTick = clientTick;
+        this.tick = tick;
+    }
+
+    /**
+     * Packs the buttons held in a client input
+     * @param ci the client input
+     * @return the buttons held, as bits of this class
+     */
+    public static int buttons(ClientInput ci) {
+        int buttons = 0;
+        if (ci.getLeft()) {
+            buttons |= LEFT;
+        }
+        if (ci.getRight()) {
+            buttons |= RIGHT;
+        }
+        if (ci.getForward()) {
+            buttons |= FORWARD;
+        }
+        if (ci.getFire()) {
+            buttons |= FIRE;
+        }
+        if (ci.getJump()) {
+            buttons |= JUMP;
+        }
+        if (ci.getRestart()) {
+            buttons |= RESTART;
+        }
+        return buttons;
+    }
+
+    /**
+     * @return the ship being controlled
+     */
+    public Spacecraft getShip() {
+        return ship;
+    }
+
+    /**
+     * @return the buttons held
+     */
+    public int getButtons() {
+        return buttons;
+    }
+
+    /**
+     * @param button a button bit
+     * @return true if the button is held
+     */
+    public boolean isHeld(int button) {
+        return (buttons & button) != 0;
+    }
+
+    /**
+     * @return the client tick the input was made on, 0 if the client gave
+     * none
+     */
+    public int getClientTick() {
+        return clientTick;
+    }
+
+    /**
+     * @return the galaxy tick the input arrived during
+     */
+    public long getTick() {
+        return tick;
+    }
+}
@@ -0,0 +1,177 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to objects, without boxing the keys. Entries are held
+ * in two parallel arrays using open addressing with linear probing, and
+ * removal shifts later entries back rather than leaving markers, so lookups
+ * stay short however much the map is churned. Null values are not allowed;
+ * an empty slot is one whose value is null.
+ *
+ * The slots can be walked with capacity(), keyAt() and valueAt(), e.g. to
+ * find entries to remove, but must not be changed during the walk.
+ * @param <V> the type of the values
+ * @author kjb146 and zjt14
+ */
+public class LongObjectMap<V> {
+
+    //initial number of slots, always a power of two
+    private static final int INITIAL_CAPACITY = 16;
+
+    //the key and value in each slot, the value is null if the slot is empty
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    //number of entries
+    private int size = 0;
+
+    /**
+     * @param key a key
+     * @return the value stored against the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int h = slot(key, mask); values[h] != null; h = (h + 1) & mask) {
+            if (keys[h] == key) {
+                return (V) values[h];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value against a key, replacing any value already stored
+     * @param key the key
+     * @param value the value, not null
+     * @return the value previously stored against the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not allowed");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int h = slot(key, mask);
+        while (values[h] != null) {
+            if (keys[h] == key) {
+                V previous = (V) values[h];
+                values[h] = value;
+                return previous;
+            }
+            h = (h + 1) & mask;
+        }
+        keys[h] = key;
+        values[h] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value stored against a key
+     * @param key the key
+     * @return the value that was stored against the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int h = slot(key, mask);
+        while (values[h] != null && keys[h] != key) {
+            h = (h + 1) & mask;
+        }
+        if (values[h] == null) {
+            return null;
+        }
+        V removed = (V) values[h];
+        size--;
+
+        //shift back later entries of the run that would no longer be found
+        int gap = h;
+        for (int next = (gap + 1) & mask; values[next] != null;
+                next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            //move the entry if its home is not between the gap and it
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        return removed;
+    }
+
+    /**
+     * Removes every entry
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots, for walking the entries
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param slot a slot from 0 to capacity() - 1
+     * @return the key in the slot, meaningless if the slot is empty
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot a slot from 0 to capacity() - 1
+     * @return the value in the slot, or null if the slot is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * Moves every entry into a table of a new size
+     * @param capacity the new number of slots, a power of two
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int h = slot(oldKeys[i], mask);
+                while (values[h] != null) {
+                    h = (h + 1) & mask;
+                }
+                keys[h] = oldKeys[i];
+                values[h] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @param key a key
+     * @param mask the number of slots less one
+     * @return the slot the key would ideally be held in
+     */
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -52,20 +52,27 @@ public class Missile extends SpaceMass {
                 IMPULSE * Math.sin(heading));
         this.accelerate(launch_accel);
         
-        super.stepTime(); // Force a position update
+        move(); // Force a position update
     }
 
     /**
-     * Update the missile position and velocity, and check to see if the
+     * @return the type code for missiles
+     */
+    @Override
+    public int getType() {
+        return TYPE_MISSILE;
+    }
+
+    /**
+     * Update the missile heading from its velocity, and check to see if the
      * missile has exceeded its lifetime.
      */
     @Override
-    public void stepTime() {
-        super.stepTime();
+    protected void stepState() {
         //Set heading to current velocity direction W.R.T. due north
         double heading = Math.atan2(
-                this.getVelocity().y,
-                this.getVelocity().x);
+                this.getVelocityY(),
+                this.getVelocityX());
         
         this.setHeading(heading);
 
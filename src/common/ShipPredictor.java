@@ -0,0 +1,226 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.vecmath.Point2d;
+import javax.vecmath.Vector2d;
+
+/**
+ * Predicts where the player's own ship is on the client, so thrusting and
+ * turning show straight away rather than a round trip later. The buttons
+ * held on every client tick are kept until a snapshot says the server has
+ * applied them, and are applied at once to a local copy of the ship using
+ * the same Spacecraft and SpaceMass code the server runs. When a snapshot
+ * arrives the copy is reset to the server's ship and the ticks the server
+ * has not yet applied are replayed on top, so a wrong guess (a collision, a
+ * missed tick) is corrected within a tick.
+ *
+ * Only movement is predicted; firing, jumping and damage are left to the
+ * server. A client tick is assumed to last a server tick, and the ship is
+ * drawn moving smoothly over each tick from where it was before the tick
+ * to where the tick's buttons take it.
+ * @author kjb146 and zjt14
+ */
+public class ShipPredictor {
+
+    //number of unapplied inputs kept, a power of two
+    private static final int CAPACITY = 64;
+    //moves further than this in a tick are drawn without blending
+    private static final double SNAP_DISTANCE = 100;
+
+    //the client ticks and buttons of the inputs not yet known to be
+    //applied, oldest first
+    private final int[] ticks = new int[CAPACITY];
+    private final int[] buttons = new int[CAPACITY];
+    private int first = 0;
+    private int count = 0;
+
+    //the local copy of the player's ship, never in a galaxy
+    private final Spacecraft ship = new Spacecraft();
+    //where the ship was before its last step, and System.nanoTime() of the
+    //last client tick
+    private double fromX;
+    private double fromY;
+    private double fromHeading;
+    private long tickedAt;
+    //the length of a server tick in nanoseconds
+    private final long tickNanos;
+    //false until a snapshot holding the player's ship has arrived
+    private boolean predicting = false;
+    //the stars of the player's galaxy, and their ids to notice a new galaxy
+    private final List<Star> stars = new ArrayList<Star>();
+    private long[] starIDs = new long[0];
+
+    /**
+     * Constructor
+     * @param tickMillis the length of a server tick in milliseconds
+     */
+    public ShipPredictor(int tickMillis) {
+        tickNanos = tickMillis * 1000000L;
+    }
+
+    /**
+     * Records the buttons held on a client tick and moves the ship on by
+     * them
+     * @param tick the client tick
+     * @param held the buttons held, as InputCommand bits
+     * @param now System.nanoTime() of the tick
+     */
+    public synchronized void advance(int tick, int held, long now) {
+        if (count == CAPACITY) {
+            //the server is far behind, forget the oldest
+            first = (first + 1) & (CAPACITY - 1);
+            count--;
+        }
+        int n = (first + count) & (CAPACITY - 1);
+        ticks[n] = tick;
+        buttons[n] = held;
+        count++;
+        tickedAt = now;
+        if (predicting) {
+            step(held);
+        }
+    }
+
+    /**
+     * Resets the ship to where a snapshot has it and replays the inputs the
+     * server had not applied when the snapshot was captured
+     * @param snapshot the latest snapshot from the server
+     */
+    public synchronized void reconcile(Snapshot snapshot) {
+        //forget the inputs the server has applied
+        int applied = snapshot.getInputTick();
+        while (count > 0 && ticks[first] - applied <= 0) {
+            first = (first + 1) & (CAPACITY - 1);
+            count--;
+        }
+
+        int i = snapshot.indexOf(snapshot.getPlayerID());
+        predicting = i >= 0
+                && snapshot.getType(i) == SpaceMass.TYPE_SPACECRAFT;
+        if (!predicting) {
+            return;
+        }
+        findStars(snapshot);
+
+        ship.setLocation(new Point2d(snapshot.getX(i), snapshot.getY(i)));
+        ship.setVelocity(new Vector2d(
+                snapshot.getVelocityX(i), snapshot.getVelocityY(i)));
+        ship.setHeading(snapshot.getHeading(i));
+        ship.setFuel(snapshot.getFuel(i));
+        fromX = ship.getX();
+        fromY = ship.getY();
+        fromHeading = ship.getHeading();
+        for (int n = 0; n < count; n++) {
+            step(buttons[(first + n) & (CAPACITY - 1)]);
+        }
+    }
+
+    /**
+     * Moves the player's ship in a snapshot to where it is predicted to be
+     * @param snapshot the snapshot about to be drawn
+     * @param now System.nanoTime() of the frame being drawn
+     */
+    public synchronized void apply(Snapshot snapshot, long now) {
+        if (!predicting) {
+            return;
+        }
+        int i = snapshot.indexOf(snapshot.getPlayerID());
+        if (i < 0 || snapshot.getType(i) != SpaceMass.TYPE_SPACECRAFT) {
+            return;
+        }
+
+        //how far through the last client tick the frame is
+        double alpha = Math.min(1.0, Math.max(0.0,
+                (double) (now - tickedAt) / tickNanos));
+        double x = ship.getX();
+        double y = ship.getY();
+        double heading = ship.getHeading();
+        if (Math.abs(x - fromX) < SNAP_DISTANCE
+                && Math.abs(y - fromY) < SNAP_DISTANCE) {
+            x = fromX + (x - fromX) * alpha;
+            y = fromY + (y - fromY) * alpha;
+            double turn = Math.IEEEremainder(heading - fromHeading,
+                    2 * Math.PI);
+            heading = fromHeading + turn * alpha;
+        }
+        snapshot.x[i] = Snapshot.toPosition(x);
+        snapshot.y[i] = Snapshot.toPosition(y);
+        snapshot.vx[i] = Snapshot.toVelocity(ship.getVelocityX());
+        snapshot.vy[i] = Snapshot.toVelocity(ship.getVelocityY());
+        snapshot.heading[i] = Snapshot.toAngle(heading);
+    }
+
+    /**
+     * Forgets the ship and every input, e.g. when the connection is lost
+     */
+    public synchronized void clear() {
+        predicting = false;
+        count = 0;
+    }
+
+    /**
+     * Moves the ship on one server tick, steered as the galaxy steers it
+     * @param held the buttons held, as InputCommand bits
+     */
+    private void step(int held) {
+        fromX = ship.getX();
+        fromY = ship.getY();
+        fromHeading = ship.getHeading();
+        if ((held & InputCommand.FORWARD) != 0) {
+            ship.thrust();
+        }
+        if ((held & InputCommand.LEFT) != 0) {
+            ship.counterClockwise();
+        }
+        if ((held & InputCommand.RIGHT) != 0) {
+            ship.clockwise();
+        }
+        //the pull EntityStore.gravitate gives it on the server
+        double ax = 0;
+        double ay = 0;
+        for (int s = 0; s < stars.size(); s++) {
+            Star star = stars.get(s);
+            double dx = star.getX() - ship.getX();
+            double dy = star.getY() - ship.getY();
+            double r2 = dx * dx + dy * dy;
+            double scale = star.getGravityConstant() / (r2 * Math.sqrt(r2));
+            ax += dx * scale;
+            ay += dy * scale;
+        }
+        ship.accelerate(EntityStore.PULLS_PER_SOURCE * ax,
+                EntityStore.PULLS_PER_SOURCE * ay);
+        ship.stepTime();
+    }
+
+    /**
+     * Rebuilds the stars pulling on the ship if the snapshot is of a
+     * different galaxy to the last
+     * @param snapshot the latest snapshot from the server
+     */
+    private void findStars(Snapshot snapshot) {
+        int n = 0;
+        boolean same = true;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.getType(i) == SpaceMass.TYPE_STAR) {
+                same &= n < starIDs.length
+                        && starIDs[n] == snapshot.getID(i);
+                n++;
+            }
+        }
+        if (same && n == starIDs.length) {
+            return;
+        }
+
+        stars.clear();
+        starIDs = new long[n];
+        n = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.getType(i) == SpaceMass.TYPE_STAR) {
+                starIDs[n++] = snapshot.getID(i);
+                stars.add(new Star(snapshot.getRadius(i),
+                        new Point2d(snapshot.getX(i), snapshot.getY(i))));
+            }
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package common;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * The state of a galaxy as seen by one player at one instant. The server
+ * captures one from its galaxy every tick and the client rebuilds it from the
+ * wire with SnapshotCodec. Entities are held as parallel arrays indexed from
+ * 0 to size() - 1 so a snapshot can be refilled every tick without creating
+ * any objects.
+ *
+ * Values are held exactly as they are sent on the wire (fixed point), so the
+ * server and client agree on them bit for bit and deltas between two
+ * snapshots can be computed and applied exactly. Fields that do not apply to
+ * an entity's type are 0.
+ * @author kjb146 and zjt14
+ */
+public class Snapshot {
+
+    //fixed point scales (units per pixel, per pixel per tick, per radian)
+    static final float POSITION_SCALE = 32f;
+    static final float VELOCITY_SCALE = 256f;
+    static final double ANGLE_SCALE = 65536 / (2 * Math.PI);
+    //positions move by velocity >> VELOCITY_SHIFT each tick
+    static final int VELOCITY_SHIFT = 3;
+
+    //initial number of entities a snapshot can hold
+    private static final int INITIAL_CAPACITY = 64;
+
+    //the sequence number of this snapshot, -1 if it holds nothing
+    private int sequence = -1;
+    //the server's clock when the snapshot was captured, the low 32 bits of
+    //System.currentTimeMillis()
+    private int timestamp;
+    //the id of the ship belonging to the player this snapshot was sent to
+    private long playerID;
+    //the client tick of the last of the player's inputs applied
+    private int inputTick;
+    //the color of stars in the galaxy, kept as an object for the renderer
+    private Color starColor = Color.WHITE;
+    //the number of the background of the galaxy
+    private int backNum;
+
+    //number of entities in the snapshot
+    private int size;
+    //state common to every entity
+    long[] id = new long[INITIAL_CAPACITY];
+    int[] type = new int[INITIAL_CAPACITY];
+    int[] x = new int[INITIAL_CAPACITY];
+    int[] y = new int[INITIAL_CAPACITY];
+    int[] heading = new int[INITIAL_CAPACITY];
+    int[] vx = new int[INITIAL_CAPACITY];
+    int[] vy = new int[INITIAL_CAPACITY];
+    //state of particular types
+    int[] radius = new int[INITIAL_CAPACITY];
+    int[] shields = new int[INITIAL_CAPACITY];
+    int[] fuel = new int[INITIAL_CAPACITY];
+    int[] missilesLeft = new int[INITIAL_CAPACITY];
+    int[] tumble = new int[INITIAL_CAPACITY];
+    int[] explosion = new int[INITIAL_CAPACITY];
+    long[] debrisID = new long[INITIAL_CAPACITY];
+
+    //reused space for rearranging the entities
+    private int[] order = new int[0];
+    private int[] scratch = new int[0];
+    private long[] longScratch = new long[0];
+
+    //open addressing table from entity id to index, rebuilt when stale
+    private long[] indexKeys = new long[0];
+    private int[] indexValues = new int[0];
+    private boolean indexStale = true;
+
+    /**
+     * Sets the galaxy wide values and empties the snapshot ready to be
+     * refilled
+     * @param sequence the sequence number of the snapshot
+     * @param timestamp the server's clock when the snapshot was captured
+     * @param playerID the id of the players ship
+     * @param inputTick the client tick of the last of the player's inputs
+     * applied
+     * @param starRGB the color of the stars as an RGB value
+     * @param backNum the number of the background
+     */
+    void reset(int sequence, int timestamp, long playerID, int inputTick,
+            int starRGB, int backNum) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.playerID = playerID;
+        this.inputTick = inputTick;
+        if (starColor.getRGB() != starRGB) {
+            starColor = new Color(starRGB);
+        }
+        this.backNum = backNum;
+        size = 0;
+        indexStale = true;
+    }
+
+    /**
+     * Marks the snapshot as holding nothing
+     */
+    void invalidate() {
+        sequence = -1;
+        size = 0;
+        indexStale = true;
+    }
+
+    /**
+     * Appends an entity with every field cleared except its id and type
+     * @param entityID the entity's id
+     * @param entityType the entity's SpaceMass type code
+     * @return the index of the new entity
+     */
+    int add(long entityID, int entityType) {
+        if (size == id.length) {
+            grow();
+        }
+        int i = size++;
+        id[i] = entityID;
+        type[i] = entityType;
+        x[i] = 0;
+        y[i] = 0;
+        heading[i] = 0;
+        vx[i] = 0;
+        vy[i] = 0;
+        radius[i] = 0;
+        shields[i] = 0;
+        fuel[i] = 0;
+        missilesLeft[i] = 0;
+        tumble[i] = 0;
+        explosion[i] = 0;
+        debrisID[i] = 0;
+        indexStale = true;
+        return i;
+    }
+
+    /**
+     * Appends a copy of an entity from another snapshot
+     * @param other the snapshot holding the entity
+     * @param j the index of the entity in the other snapshot
+     * @return the index of the new entity
+     */
+    int copy(Snapshot other, int j) {
+        int i = add(other.id[j], other.type[j]);
+        x[i] = other.x[j];
+        y[i] = other.y[j];
+        heading[i] = other.heading[j];
+        vx[i] = other.vx[j];
+        vy[i] = other.vy[j];
+        radius[i] = other.radius[j];
+        shields[i] = other.shields[j];
+        fuel[i] = other.fuel[j];
+        missilesLeft[i] = other.missilesLeft[j];
+        tumble[i] = other.tumble[j];
+        explosion[i] = other.explosion[j];
+        debrisID[i] = other.debrisID[j];
+        return i;
+    }
+
+    /**
+     * Makes this snapshot a copy of another
+     * @param other the snapshot to copy
+     */
+    void copyFrom(Snapshot other) {
+        reset(other.sequence, other.timestamp, other.playerID,
+                other.inputTick, other.starColor.getRGB(), other.backNum);
+        for (int j = 0; j < other.size; j++) {
+            copy(other, j);
+        }
+    }
+
+    /**
+     * Removes every entity whose type has been cleared to 0, keeping the
+     * order of the rest
+     */
+    void removeDespawned() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (type[i] == 0) {
+                continue;
+            }
+            if (kept != i) {
+                id[kept] = id[i];
+                type[kept] = type[i];
+                x[kept] = x[i];
+                y[kept] = y[i];
+                heading[kept] = heading[i];
+                vx[kept] = vx[i];
+                vy[kept] = vy[i];
+                radius[kept] = radius[i];
+                shields[kept] = shields[i];
+                fuel[kept] = fuel[i];
+                missilesLeft[kept] = missilesLeft[i];
+                tumble[kept] = tumble[i];
+                explosion[kept] = explosion[i];
+                debrisID[kept] = debrisID[i];
+            }
+            kept++;
+        }
+        if (kept != size) {
+            size = kept;
+            indexStale = true;
+        }
+    }
+
+    /**
+     * Rearranges the entities into order of id. The server and every client
+     * hold each snapshot in this order however they built it, so a delta
+     * can refer to entities by their index in the baseline whichever
+     * baseline a client rebuilt it from.
+     */
+    void sortByID() {
+        int i = 1;
+        while (i < size && id[i - 1] < id[i]) {
+            i++;
+        }
+        if (i >= size) {
+            return;
+        }
+        if (order.length < size) {
+            order = new int[id.length];
+            scratch = new int[id.length];
+            longScratch = new long[id.length];
+        }
+
+        //merge sort the indices by id, runs of width doubling each pass
+        int[] from = order;
+        int[] to = scratch;
+        for (i = 0; i < size; i++) {
+            from[i] = i;
+        }
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size);
+                int hi = Math.min(lo + 2 * width, size);
+                int a = lo;
+                int b = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (b >= hi || (a < mid && id[from[a]] <= id[from[b]])) {
+                        to[k] = from[a++];
+                    } else {
+                        to[k] = from[b++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, size);
+        }
+
+        permute(id);
+        permute(type);
+        permute(x);
+        permute(y);
+        permute(heading);
+        permute(vx);
+        permute(vy);
+        permute(radius);
+        permute(shields);
+        permute(fuel);
+        permute(missilesLeft);
+        permute(tumble);
+        permute(explosion);
+        permute(debrisID);
+        indexStale = true;
+    }
+
+    /**
+     * Moves the values of one field into the order set up by sortByID
+     * @param values the field's values
+     */
+    private void permute(int[] values) {
+        for (int k = 0; k < size; k++) {
+            scratch[k] = values[order[k]];
+        }
+        System.arraycopy(scratch, 0, values, 0, size);
+    }
+
+    /**
+     * Moves the values of one field into the order set up by sortByID
+     * @param values the field's values
+     */
+    private void permute(long[] values) {
+        for (int k = 0; k < size; k++) {
+            longScratch[k] = values[order[k]];
+        }
+        System.arraycopy(longScratch, 0, values, 0, size);
+    }
+
+    /**
+     * Finds an entity by id
+     * @param entityID the id of the entity
+     * @return the index of the entity, or -1 if it is not in the snapshot
+     */
+    public int indexOf(long entityID) {
+        if (indexStale) {
+            rebuildIndex();
+        }
+        int mask = indexKeys.length - 1;
+        for (int h = mix(entityID) & mask; indexValues[h] != -1;
+                h = (h + 1) & mask) {
+            if (indexKeys[h] == entityID) {
+                return indexValues[h];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds the table from entity id to index
+     */
+    private void rebuildIndex() {
+        int capacity = Integer.highestOneBit(Math.max(4, size * 2) - 1) << 1;
+        if (indexKeys.length != capacity) {
+            indexKeys = new long[capacity];
+            indexValues = new int[capacity];
+        }
+        Arrays.fill(indexValues, -1);
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int h = mix(id[i]) & mask;
+            while (indexValues[h] != -1) {
+                h = (h + 1) & mask;
+            }
+            indexKeys[h] = id[i];
+            indexValues[h] = i;
+        }
+        indexStale = false;
+    }
+
+    /**
+     * @param key an entity id
+     * @return the id with its bits spread for use as a hash
+     */
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Doubles the number of entities the snapshot can hold
+     */
+    private void grow() {
+        int capacity = id.length * 2;
+        id = Arrays.copyOf(id, capacity);
+        type = Arrays.copyOf(type, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        heading = Arrays.copyOf(heading, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        shields = Arrays.copyOf(shields, capacity);
+        fuel = Arrays.copyOf(fuel, capacity);
+        missilesLeft = Arrays.copyOf(missilesLeft, capacity);
+        tumble = Arrays.copyOf(tumble, capacity);
+        explosion = Arrays.copyOf(explosion, capacity);
+        debrisID = Arrays.copyOf(debrisID, capacity);
+    }
+
+    /**
+     * Predicts where a location will be after some ticks at a velocity. The
+     * server and client both use this so they always agree on the result.
+     * @param location a fixed point location
+     * @param velocity a fixed point velocity
+     * @param ticks the number of ticks
+     * @return the predicted fixed point location
+     */
+    static int predict(int location, int velocity, int ticks) {
+        return location + ((velocity * ticks) >> VELOCITY_SHIFT);
+    }
+
+    /**
+     * @param value a location in pixels
+     * @return the location as unsigned fixed point
+     */
+    static int toPosition(double value) {
+        int fixed = (int) Math.round(value * POSITION_SCALE);
+        return Math.min(0xFFFF, Math.max(0, fixed));
+    }
+
+    /**
+     * @param value a velocity in pixels per tick
+     * @return the velocity as signed fixed point
+     */
+    static int toVelocity(double value) {
+        int fixed = (int) Math.round(value * VELOCITY_SCALE);
+        return Math.min(Short.MAX_VALUE, Math.max(Short.MIN_VALUE, fixed));
+    }
+
+    /**
+     * @param value an angle in radians, of any size
+     * @return the angle as an unsigned fraction of a full turn
+     */
+    static int toAngle(double value) {
+        return (int) (Math.round(value * ANGLE_SCALE) & 0xFFFF);
+    }
+
+    /**
+     * @return the sequence number of this snapshot, -1 if it holds nothing
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the server's clock in milliseconds when this snapshot was
+     * captured, only the low 32 bits so compare it by subtraction
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the ID of the players ship
+     */
+    public long getPlayerID() {
+        return playerID;
+    }
+
+    /**
+     * @return the client tick of the last of the player's inputs the
+     * server had applied when it captured this snapshot
+     */
+    public int getInputTick() {
+        return inputTick;
+    }
+
+    /**
+     * @param inputTick the client tick of the last of the player's inputs
+     * applied
+     */
+    void setInputTick(int inputTick) {
+        this.inputTick = inputTick;
+    }
+
+    /**
+     * @return the color of stars in this galaxy
+     */
+    public Color getStarColor() {
+        return starColor;
+    }
+
+    /**
+     * @return the number of the background to use for this galaxy
+     */
+    public int getBackNum() {
+        return backNum;
+    }
+
+    /**
+     * @return the number of entities in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i entity index
+     * @return the unique id of the entity
+     */
+    public long getID(int i) {
+        return id[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the SpaceMass type code of the entity
+     */
+    public int getType(int i) {
+        return type[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the x location of the entity
+     */
+    public float getX(int i) {
+        return x[i] / POSITION_SCALE;
+    }
+
+    /**
+     * @param i entity index
+     * @return the y location of the entity
+     */
+    public float getY(int i) {
+        return y[i] / POSITION_SCALE;
+    }
+
+    /**
+     * @param i entity index
+     * @return the heading of the entity in radians. A missile always faces
+     * its direction of travel.
+     */
+    public float getHeading(int i) {
+        if (type[i] == SpaceMass.TYPE_MISSILE) {
+            return (float) Math.atan2(vy[i], vx[i]);
+        }
+        return (float) (heading[i] / ANGLE_SCALE);
+    }
+
+    /**
+     * @param i entity index
+     * @return the x velocity of the entity (0 for stars)
+     */
+    public float getVelocityX(int i) {
+        return vx[i] / VELOCITY_SCALE;
+    }
+
+    /**
+     * @param i entity index
+     * @return the y velocity of the entity (0 for stars)
+     */
+    public float getVelocityY(int i) {
+        return vy[i] / VELOCITY_SCALE;
+    }
+
+    /**
+     * @param i entity index
+     * @return the radius of a star
+     */
+    public int getRadius(int i) {
+        return radius[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the shield strength of a spacecraft
+     */
+    public int getShields(int i) {
+        return shields[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the fuel left in a spacecraft
+     */
+    public int getFuel(int i) {
+        return fuel[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the number of missiles left in a spacecraft
+     */
+    public int getMissilesLeft(int i) {
+        return missilesLeft[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the 3D tumble of debris
+     */
+    public float getTumble(int i) {
+        return (float) (tumble[i] / ANGLE_SCALE);
+    }
+
+    /**
+     * @param i entity index
+     * @return the explosion frame of debris
+     */
+    public int getExplosionFrame(int i) {
+        return explosion[i];
+    }
+
+    /**
+     * @param i entity index
+     * @return the id of the ship that turned into the debris
+     */
+    public long getDebrisID(int i) {
+        return debrisID[i];
+    }
+}
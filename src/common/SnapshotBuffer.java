@@ -0,0 +1,148 @@
+package common;
+
+/**
+ * Hands snapshots from the thread reading them off the network to the
+ * thread drawing them, which runs at the display's rate rather than the
+ * server's. The two most recent snapshots are kept, and each frame is drawn
+ * from a blend of them: over one server tick after the latest arrives, the
+ * entities move from where the previous snapshot had them to where the
+ * latest has them. Everything is therefore drawn one tick late, but moves
+ * smoothly between ticks and keeps moving through a late snapshot.
+ *
+ * Entities that have moved further than a jump can explain (wrapped round
+ * the galaxy or gone through hyperspace) are drawn where the latest
+ * snapshot has them, as are entities the previous snapshot did not have.
+ * @author kjb146 and zjt14
+ */
+public class SnapshotBuffer {
+
+    //moves further than this between snapshots are drawn without blending
+    private static final int SNAP_DISTANCE =
+            (int) (100 * Snapshot.POSITION_SCALE);
+    //the number of fixed point angle units in a full turn
+    private static final int FULL_TURN = 0x10000;
+
+    //the two most recent snapshots, copied so the reader can reuse its own
+    private Snapshot previous = new Snapshot();
+    private Snapshot latest = new Snapshot();
+    //System.nanoTime() when the latest snapshot arrived
+    private long latestArrival;
+    //the time between snapshots to assume when their timestamps do not say
+    private final long defaultIntervalNanos;
+    //the number of snapshots pushed, so a drawer can tell if any arrived
+    private long pushed = 0;
+
+    /**
+     * Constructor
+     * @param tickMillis the server's usual time between snapshots in
+     * milliseconds
+     */
+    public SnapshotBuffer(int tickMillis) {
+        defaultIntervalNanos = tickMillis * 1000000L;
+    }
+
+    /**
+     * Adds the newest snapshot, making it the latest and the latest the
+     * previous
+     * @param snapshot the snapshot, copied so it may be reused afterwards
+     * @param arrival System.nanoTime() when it arrived
+     */
+    public synchronized void push(Snapshot snapshot, long arrival) {
+        Snapshot oldest = previous;
+        previous = latest;
+        latest = oldest;
+        latest.copyFrom(snapshot);
+        latestArrival = arrival;
+        pushed++;
+    }
+
+    /**
+     * @return the number of snapshots pushed so far
+     */
+    public synchronized long getPushed() {
+        return pushed;
+    }
+
+    /**
+     * Forgets every snapshot, e.g. when the connection is lost
+     */
+    public synchronized void clear() {
+        previous.invalidate();
+        latest.invalidate();
+    }
+
+    /**
+     * Fills a snapshot with the blend of the two most recent snapshots to
+     * draw at a moment
+     * @param now System.nanoTime() of the frame being drawn
+     * @param out the snapshot to fill
+     * @return false if no snapshot has arrived yet, in which case out is
+     * left alone
+     */
+    public synchronized boolean interpolate(long now, Snapshot out) {
+        if (latest.getSequence() < 0) {
+            return false;
+        }
+        out.copyFrom(latest);
+        if (previous.getSequence() < 0) {
+            return true;
+        }
+
+        //how far through the tick after the latest arrived the frame is
+        long interval = (latest.getTimestamp() - previous.getTimestamp())
+                * 1000000L;
+        if (interval <= 0 || interval > 4 * defaultIntervalNanos) {
+            interval = defaultIntervalNanos;
+        }
+        float alpha = Math.min(1f, Math.max(0f,
+                (float) (now - latestArrival) / interval));
+        if (alpha == 1f) {
+            return true;
+        }
+
+        for (int i = 0; i < out.size(); i++) {
+            int j = previous.indexOf(out.id[i]);
+            if (j < 0 || previous.type[j] != out.type[i]) {
+                continue;
+            }
+            int dx = out.x[i] - previous.x[j];
+            int dy = out.y[i] - previous.y[j];
+            if (Math.abs(dx) > SNAP_DISTANCE || Math.abs(dy) > SNAP_DISTANCE) {
+                continue;
+            }
+            out.x[i] = previous.x[j] + Math.round(dx * alpha);
+            out.y[i] = previous.y[j] + Math.round(dy * alpha);
+            out.vx[i] = blend(previous.vx[j], out.vx[i], alpha);
+            out.vy[i] = blend(previous.vy[j], out.vy[i], alpha);
+            out.heading[i] = blendAngle(previous.heading[j], out.heading[i],
+                    alpha);
+            out.tumble[i] = blendAngle(previous.tumble[j], out.tumble[i],
+                    alpha);
+        }
+        return true;
+    }
+
+    /**
+     * @param from the value at the start of the tick
+     * @param to the value at the end of the tick
+     * @param alpha how far through the tick, 0 to 1
+     * @return the value part way between
+     */
+    private static int blend(int from, int to, float alpha) {
+        return from + Math.round((to - from) * alpha);
+    }
+
+    /**
+     * @param from the fixed point angle at the start of the tick
+     * @param to the fixed point angle at the end of the tick
+     * @param alpha how far through the tick, 0 to 1
+     * @return the angle part way between, turning the short way round
+     */
+    private static int blendAngle(int from, int to, float alpha) {
+        int turn = (to - from) & (FULL_TURN - 1);
+        if (turn >= FULL_TURN / 2) {
+            turn -= FULL_TURN;
+        }
+        return (from + Math.round(turn * alpha)) & (FULL_TURN - 1);
+    }
+}
@@ -0,0 +1,807 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Captures galaxies into Snapshots and encodes them into the compact binary
+ * frames sent from the server to each client every tick, and decodes those
+ * frames back into Snapshots.
+ *
+ * A frame is an int length followed by that many bytes: a header for the
+ * player the frame is sent to, then the body. The header is a version byte,
+ * the player's ship id and the client tick of the last of the player's
+ * inputs applied. The body is the same for every player in a galaxy, so the
+ * server encodes it once a tick (once per baseline for deltas) and sends the
+ * same bytes to them all. It starts with the frame kind, the snapshot's
+ * sequence number, the server's clock when it was captured, the star color
+ * and the background number.
+ *
+ * Sequence numbers count the server's ticks, and are shared by every
+ * galaxy, so a snapshot from one galaxy is never mistaken for another's.
+ * Entities are held in order of id at both ends, which is the order records
+ * are sent in.
+ *
+ * A keyframe then holds the entity count and one record per entity. Every
+ * record starts with the entity id, its type byte and its location, followed
+ * only by the fields that type uses. Locations, velocities and angles are
+ * sent as 16 bit fixed point values. Entity ids are 64 bit but handed out
+ * from a counter, so they are sent as varints and usually take 2 or 3 bytes.
+ *
+ * A delta also holds the sequence number of the baseline snapshot it was
+ * encoded against, the entities that have gone since the baseline, the
+ * fields that have changed on the rest, and full records for new entities.
+ * Entities not mentioned are unchanged, except that every entity is moved on
+ * by its velocity for the ticks since the baseline, so steadily moving
+ * entities cost nothing and the rest usually only need small corrections.
+ *
+ * A body may be compressed by a FrameCompressor, for players short of
+ * bandwidth. The kind then has the COMPRESSED bit set and is followed by the
+ * sequence number as usual, then the length of the rest of the body and the
+ * rest of the body deflated.
+ * @author kjb146 and zjt14
+ */
+public class SnapshotCodec {
+
+    //version of the wire format, bumped whenever the layout changes
+    public static final int VERSION = 6;
+    //largest frame body a client will accept
+    public static final int MAX_FRAME_SIZE = 1 << 24;
+    //largest frame sent as a datagram. Bigger ones go over TCP, as a
+    //datagram split into many IP fragments is lost if any one of them is
+    public static final int MAX_DATAGRAM_SIZE = 8192;
+
+    //kinds of frame, and the bit set in the kind of a compressed one
+    private static final int KEYFRAME = 0;
+    private static final int DELTA = 1;
+    private static final int COMPRESSED = 0x80;
+
+    //bits saying what a delta record holds
+    private static final int MASK_POSITION = 1;
+    private static final int MASK_NUDGE = 2;
+    private static final int MASK_VELOCITY = 4;
+    private static final int MASK_VELOCITY_NUDGE = 8;
+    private static final int MASK_HEADING = 16;
+    private static final int MASK_STATE = 32;
+
+    //size of the largest varint holding an int and holding a long
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int MAX_VARLONG_SIZE = 10;
+    //size of the frame length and the largest player header
+    public static final int PLAYER_HEADER_SIZE = 4 + 1 + MAX_VARLONG_SIZE + 4;
+    //size of the largest body header and the entity counts
+    private static final int BODY_HEADER_SIZE = 1 + 4 + 4 + 4 + 4 + 1 + 3 * 4;
+    //size of the largest entity record (a new debris) including its id
+    private static final int MAX_RECORD_SIZE = MAX_VARLONG_SIZE + 1 + 4 + 2 + 4 + 2 + 1 + MAX_VARLONG_SIZE;
+
+    /**
+     * Private constructor, only static methods are provided
+     */
+    private SnapshotCodec() {
+    }
+
+    /**
+     * Captures the state of a galaxy as seen by a player
+     * @param galaxy the galaxy to capture
+     * @param sequence the sequence number of the snapshot
+     * @param playerID the id of the players ship
+     * @param snapshot the snapshot to refill
+     */
+    public static void capture(Galaxy galaxy, int sequence, long playerID,
+            Snapshot snapshot) {
+        synchronized (galaxy) {
+            EntityStore store = galaxy.getStore();
+            snapshot.reset(sequence, (int) System.currentTimeMillis(), playerID,
+                    0, galaxy.getStarColor().getRGB(), galaxy.getBackNum());
+
+            for (int slot = 0; slot < store.size(); slot++) {
+                SpaceMass sm = store.owner[slot];
+                if (sm == null) {
+                    continue;
+                }
+                int type = store.type[slot];
+                int i = snapshot.add(store.id[slot], type);
+                snapshot.x[i] = Snapshot.toPosition(store.x[slot]);
+                snapshot.y[i] = Snapshot.toPosition(store.y[slot]);
+
+                if (type != SpaceMass.TYPE_STAR) {
+                    snapshot.vx[i] = Snapshot.toVelocity(store.vx[slot]);
+                    snapshot.vy[i] = Snapshot.toVelocity(store.vy[slot]);
+                }
+                if (type != SpaceMass.TYPE_MISSILE) {
+                    snapshot.heading[i] = Snapshot.toAngle(store.heading[slot]);
+                }
+
+                switch (type) {
+                    case SpaceMass.TYPE_STAR:
+                        snapshot.radius[i] = store.radius[slot];
+                        break;
+                    case SpaceMass.TYPE_SPACECRAFT:
+                        Spacecraft sc = (Spacecraft) sm;
+                        snapshot.shields[i] = sc.getShields();
+                        snapshot.fuel[i] = sc.getFuel();
+                        snapshot.missilesLeft[i] = sc.getMissilesLeft();
+                        if (sc.id == playerID) {
+                            snapshot.setInputTick(sc.getLastInput());
+                        }
+                        break;
+                    case SpaceMass.TYPE_DEBRIS:
+                        Debris d = (Debris) sm;
+                        snapshot.tumble[i] = Snapshot.toAngle(d.getTumble());
+                        snapshot.explosion[i] = d.getExplosionFrame();
+                        snapshot.debrisID[i] = d.getDebrisID();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        snapshot.sortByID();
+    }
+
+    /**
+     * Encodes a whole frame holding a snapshot, for the player the snapshot
+     * was captured for
+     * @param current the snapshot to send
+     * @param baseline a snapshot the far end is known to hold to encode a
+     * delta against, or null to send a keyframe
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the frame, ready to be written out
+     */
+    public static ByteBuffer encode(Snapshot current, Snapshot baseline,
+            ByteBuffer buffer) {
+        int required = PLAYER_HEADER_SIZE + maxBodySize(current, baseline);
+        if (buffer == null || buffer.capacity() < required) {
+            buffer = ByteBuffer.allocate(Math.max(required,
+                    (buffer == null) ? 0 : buffer.capacity() * 2));
+        }
+        buffer.clear();
+
+        //header, the frame length is filled in once the body is written
+        buffer.putInt(0);
+        buffer.put((byte) VERSION);
+        putVarlong(buffer, current.getPlayerID());
+        buffer.putInt(current.getInputTick());
+        putBody(current, baseline, buffer);
+
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes the player header of a frame, to be sent just before a body
+     * from encodeBody
+     * @param playerID the id of the player's ship
+     * @param inputTick the client tick of the last of the player's inputs
+     * applied
+     * @param bodyLength the length of the body that follows
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the header, ready to be written out
+     */
+    public static ByteBuffer encodeHeader(long playerID, int inputTick,
+            int bodyLength, ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() < PLAYER_HEADER_SIZE) {
+            buffer = ByteBuffer.allocate(PLAYER_HEADER_SIZE);
+        }
+        buffer.clear();
+        buffer.putInt(0);
+        buffer.put((byte) VERSION);
+        putVarlong(buffer, playerID);
+        buffer.putInt(inputTick);
+        buffer.putInt(0, buffer.position() - 4 + bodyLength);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes the body of a frame, which every player with the same
+     * baseline is sent
+     * @param current the snapshot to send
+     * @param baseline a snapshot the far end is known to hold to encode a
+     * delta against, or null to send a keyframe
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the body, ready to be written out
+     */
+    public static ByteBuffer encodeBody(Snapshot current, Snapshot baseline,
+            ByteBuffer buffer) {
+        int required = maxBodySize(current, baseline);
+        if (buffer == null || buffer.capacity() < required) {
+            buffer = ByteBuffer.allocate(Math.max(required,
+                    (buffer == null) ? 0 : buffer.capacity() * 2));
+        }
+        buffer.clear();
+        putBody(current, baseline, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param current the snapshot to send
+     * @param baseline the baseline, or null for a keyframe
+     * @return the most bytes the body can take
+     */
+    public static int maxBodySize(Snapshot current, Snapshot baseline) {
+        return BODY_HEADER_SIZE + current.size() * MAX_RECORD_SIZE
+                + ((baseline == null) ? 0 : baseline.size() * MAX_VARINT_SIZE);
+    }
+
+    /**
+     * Writes the body of a frame. Deltas refer to entities by their index
+     * in the baseline, which both ends hold in order of id.
+     * @param current the snapshot to send
+     * @param baseline the baseline, or null for a keyframe
+     * @param buffer the buffer to write to
+     */
+    private static void putBody(Snapshot current, Snapshot baseline,
+            ByteBuffer buffer) {
+        buffer.put((byte) ((baseline == null) ? KEYFRAME : DELTA));
+        buffer.putInt(current.getSequence());
+        buffer.putInt(current.getTimestamp());
+        if (baseline != null) {
+            buffer.putInt(baseline.getSequence());
+        }
+        buffer.putInt(current.getStarColor().getRGB());
+        buffer.put((byte) current.getBackNum());
+
+        if (baseline == null) {
+            buffer.putInt(current.size());
+            for (int i = 0; i < current.size(); i++) {
+                putVarlong(buffer, current.id[i]);
+                encodeEntity(current, i, buffer);
+            }
+        } else {
+            encodeDelta(current, baseline, buffer);
+        }
+    }
+
+    /**
+     * Writes the despawns, changes and spawns of a delta. Despawned and
+     * changed entities are referred to by their index in the baseline, sent
+     * as the gap from the previous index, so each costs a byte or so rather
+     * than a whole id.
+     * @param current the snapshot to send
+     * @param baseline the snapshot the delta is against
+     * @param buffer the buffer to write to
+     */
+    private static void encodeDelta(Snapshot current, Snapshot baseline,
+            ByteBuffer buffer) {
+        int ticks = current.getSequence() - baseline.getSequence();
+
+        //entities that have gone (or been replaced by a different type)
+        int countAt = buffer.position();
+        int count = 0;
+        int previous = -1;
+        buffer.putInt(0);
+        for (int j = 0; j < baseline.size(); j++) {
+            int i = current.indexOf(baseline.id[j]);
+            if (i < 0 || current.type[i] != baseline.type[j]) {
+                putVarint(buffer, j - previous - 1);
+                previous = j;
+                count++;
+            }
+        }
+        buffer.putInt(countAt, count);
+
+        //entities that have changed
+        countAt = buffer.position();
+        count = 0;
+        previous = -1;
+        buffer.putInt(0);
+        for (int j = 0; j < baseline.size(); j++) {
+            int i = current.indexOf(baseline.id[j]);
+            if (i >= 0 && current.type[i] == baseline.type[j]) {
+                int mark = buffer.position();
+                putVarint(buffer, j - previous - 1);
+                if (encodeChanges(current, i, baseline, j, ticks, buffer)) {
+                    previous = j;
+                    count++;
+                } else {
+                    buffer.position(mark);
+                }
+            }
+        }
+        buffer.putInt(countAt, count);
+
+        //entities that are new
+        countAt = buffer.position();
+        count = 0;
+        buffer.putInt(0);
+        for (int i = 0; i < current.size(); i++) {
+            int j = baseline.indexOf(current.id[i]);
+            if (j < 0 || current.type[i] != baseline.type[j]) {
+                putVarlong(buffer, current.id[i]);
+                encodeEntity(current, i, buffer);
+                count++;
+            }
+        }
+        buffer.putInt(countAt, count);
+    }
+
+    /**
+     * Writes the changes to an entity since the baseline. The location is
+     * sent relative to where the entity's current velocity would have taken
+     * it from its baseline location, so the receiver can repeat the
+     * prediction once it knows the velocity.
+     * @param current the snapshot to send
+     * @param i the index of the entity in the current snapshot
+     * @param baseline the snapshot the delta is against
+     * @param j the index of the entity in the baseline
+     * @param ticks the number of ticks since the baseline
+     * @param buffer the buffer to write to
+     * @return true if anything was written, false if nothing changed
+     */
+    private static boolean encodeChanges(Snapshot current, int i,
+            Snapshot baseline, int j, int ticks, ByteBuffer buffer) {
+        int mask = 0;
+
+        int dvx = current.vx[i] - baseline.vx[j];
+        int dvy = current.vy[i] - baseline.vy[j];
+        if (dvx != 0 || dvy != 0) {
+            mask |= fitsByte(dvx, dvy) ? MASK_VELOCITY_NUDGE : MASK_VELOCITY;
+        }
+        int dx = current.x[i] - Snapshot.predict(baseline.x[j], current.vx[i], ticks);
+        int dy = current.y[i] - Snapshot.predict(baseline.y[j], current.vy[i], ticks);
+        if (dx != 0 || dy != 0) {
+            mask |= fitsByte(dx, dy) ? MASK_NUDGE : MASK_POSITION;
+        }
+        if (current.heading[i] != baseline.heading[j]) {
+            mask |= MASK_HEADING;
+        }
+        if (current.shields[i] != baseline.shields[j]
+                || current.fuel[i] != baseline.fuel[j]
+                || current.missilesLeft[i] != baseline.missilesLeft[j]
+                || current.tumble[i] != baseline.tumble[j]
+                || current.explosion[i] != baseline.explosion[j]) {
+            mask |= MASK_STATE;
+        }
+        if (mask == 0) {
+            return false;
+        }
+
+        buffer.put((byte) mask);
+        if ((mask & MASK_VELOCITY) != 0) {
+            buffer.putShort((short) current.vx[i]);
+            buffer.putShort((short) current.vy[i]);
+        } else if ((mask & MASK_VELOCITY_NUDGE) != 0) {
+            buffer.put((byte) dvx);
+            buffer.put((byte) dvy);
+        }
+        if ((mask & MASK_POSITION) != 0) {
+            buffer.putShort((short) current.x[i]);
+            buffer.putShort((short) current.y[i]);
+        } else if ((mask & MASK_NUDGE) != 0) {
+            buffer.put((byte) dx);
+            buffer.put((byte) dy);
+        }
+        if ((mask & MASK_HEADING) != 0) {
+            buffer.putShort((short) current.heading[i]);
+        }
+        if ((mask & MASK_STATE) != 0) {
+            encodeState(current, i, buffer);
+        }
+        return true;
+    }
+
+    /**
+     * @param a a value
+     * @param b another value
+     * @return true if both values fit in a signed byte
+     */
+    private static boolean fitsByte(int a, int b) {
+        return a >= Byte.MIN_VALUE && a <= Byte.MAX_VALUE
+                && b >= Byte.MIN_VALUE && b <= Byte.MAX_VALUE;
+    }
+
+    /**
+     * Writes a non negative int in as few bytes as possible, 7 bits per byte
+     * with the top bit set on every byte but the last
+     * @param buffer the buffer to write to
+     * @param value the value to write
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an int written by putVarint
+     * @param buffer the buffer to read from
+     * @return the value read
+     * @throws IOException if the value is too long to be an int
+     */
+    private static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes a non negative long in as few bytes as possible, as putVarint
+     * @param buffer the buffer to write to
+     * @param value the value to write
+     */
+    private static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a long written by putVarlong
+     * @param buffer the buffer to read from
+     * @return the value read
+     * @throws IOException if the value is too long to be a long
+     */
+    private static long getVarlong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes the full record of a single entity, without its id
+     * @param snapshot the snapshot holding the entity
+     * @param i the index of the entity
+     * @param buffer the buffer to write to
+     */
+    private static void encodeEntity(Snapshot snapshot, int i,
+            ByteBuffer buffer) {
+        int type = snapshot.type[i];
+        buffer.put((byte) type);
+        buffer.putShort((short) snapshot.x[i]);
+        buffer.putShort((short) snapshot.y[i]);
+
+        switch (type) {
+            case SpaceMass.TYPE_STAR:
+                buffer.put((byte) snapshot.radius[i]);
+                buffer.putShort((short) snapshot.heading[i]);
+                break;
+            case SpaceMass.TYPE_MISSILE:
+                //heading is always the direction of travel
+                buffer.putShort((short) snapshot.vx[i]);
+                buffer.putShort((short) snapshot.vy[i]);
+                break;
+            case SpaceMass.TYPE_SPACECRAFT:
+            case SpaceMass.TYPE_DEBRIS:
+                buffer.putShort((short) snapshot.heading[i]);
+                buffer.putShort((short) snapshot.vx[i]);
+                buffer.putShort((short) snapshot.vy[i]);
+                encodeState(snapshot, i, buffer);
+                if (type == SpaceMass.TYPE_DEBRIS) {
+                    putVarlong(buffer, snapshot.debrisID[i]);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes the type specific state of an entity that can change over time
+     * @param snapshot the snapshot holding the entity
+     * @param i the index of the entity
+     * @param buffer the buffer to write to
+     */
+    private static void encodeState(Snapshot snapshot, int i,
+            ByteBuffer buffer) {
+        if (snapshot.type[i] == SpaceMass.TYPE_SPACECRAFT) {
+            buffer.put((byte) snapshot.shields[i]);
+            buffer.putShort((short) snapshot.fuel[i]);
+            buffer.put((byte) snapshot.missilesLeft[i]);
+        } else if (snapshot.type[i] == SpaceMass.TYPE_DEBRIS) {
+            buffer.putShort((short) snapshot.tumble[i]);
+            buffer.put((byte) snapshot.explosion[i]);
+        }
+    }
+
+    /**
+     * Reads the next frame from a stream
+     * @param in the stream to read from
+     * @param buffer a buffer to reuse, replaced if it is too small
+     * @return the buffer holding the frame body, ready to be decoded
+     * @throws IOException if the stream fails or the frame is invalid
+     */
+    public static ByteBuffer readFrame(DataInputStream in, ByteBuffer buffer)
+            throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid snapshot frame length " + length);
+        }
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        in.readFully(buffer.array(), 0, length);
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Compresses a body from encodeBody
+     * @param body the body, left unchanged
+     * @param compressor the compressor to deflate it with
+     * @param buffer the buffer to put the compressed body in, cleared first
+     * @return false if compressing the body would not make it smaller, in
+     * which case the buffer's contents are undefined
+     */
+    public static boolean compressBody(ByteBuffer body,
+            FrameCompressor compressor, ByteBuffer buffer) {
+        int start = body.position();
+        buffer.clear();
+        if (buffer.remaining() < 1 + 4 + 4) {
+            return false;
+        }
+        buffer.put((byte) (body.get(start) | COMPRESSED));
+        buffer.putInt(body.getInt(start + 1));
+        buffer.putInt(body.remaining() - 1 - 4);
+        body.position(start + 1 + 4);
+        boolean smaller = compressor.deflate(body, buffer);
+        body.position(start);
+        //deflate only checks the deflated bytes are smaller
+        smaller &= buffer.position() < body.remaining();
+        buffer.flip();
+        return smaller;
+    }
+
+    /**
+     * Reads the sequence number of a frame without decoding it, so a frame
+     * arriving after a newer one can be thrown away
+     * @param in the buffer holding the frame body, left unchanged
+     * @return the frame's sequence number
+     * @throws IOException if the frame is of an unknown version or corrupt
+     */
+    public static int sequenceOf(ByteBuffer in) throws IOException {
+        in.mark();
+        try {
+            int version = in.get();
+            if (version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version);
+            }
+            getVarlong(in);
+            in.getInt();
+            in.get();
+            return in.getInt();
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated snapshot frame");
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Decodes a frame body into the history of received snapshots
+     * @param in the buffer holding the frame body
+     * @param history the snapshots received so far
+     * @return the decoded snapshot, or null if the frame is a delta against
+     * a baseline that is not in the history (a keyframe must be requested)
+     * @throws IOException if the frame is of an unknown version or corrupt
+     */
+    public static Snapshot decode(ByteBuffer in, SnapshotHistory history)
+            throws IOException {
+        return decode(in, history, null);
+    }
+
+    /**
+     * Decodes a frame body, which may be compressed, into the history of
+     * received snapshots
+     * @param in the buffer holding the frame body
+     * @param history the snapshots received so far
+     * @param compressor the compressor to inflate compressed bodies with,
+     * null if none are expected
+     * @return the decoded snapshot, or null if the frame is a delta against
+     * a baseline that is not in the history (a keyframe must be requested)
+     * @throws IOException if the frame is of an unknown version or corrupt
+     */
+    public static Snapshot decode(ByteBuffer in, SnapshotHistory history,
+            FrameCompressor compressor) throws IOException {
+        int version = in.get();
+        if (version != VERSION) {
+            throw new IOException("Unknown snapshot version " + version);
+        }
+        long playerID = getVarlong(in);
+        int inputTick = in.getInt();
+        int kind = in.get() & 0xFF;
+        int sequence = in.getInt();
+        if ((kind & COMPRESSED) != 0) {
+            if (compressor == null) {
+                throw new IOException("Unexpected compressed snapshot");
+            }
+            kind &= ~COMPRESSED;
+            int length = in.getInt();
+            in = compressor.inflate(in, length);
+        }
+        int timestamp = in.getInt();
+        Snapshot baseline = null;
+        if (kind == DELTA) {
+            int baselineSequence = in.getInt();
+            baseline = history.get(baselineSequence);
+            if (baseline == null || sequence - baselineSequence >= history.size()
+                    || baselineSequence >= sequence) {
+                return null;
+            }
+        }
+        int starRGB = in.getInt();
+        int backNum = in.get();
+
+        Snapshot snapshot = history.slot(sequence);
+        snapshot.reset(sequence, timestamp, playerID, inputTick, starRGB,
+                backNum);
+
+        if (baseline == null) {
+            int count = in.getInt();
+            for (int n = 0; n < count; n++) {
+                decodeEntity(in, snapshot, getVarlong(in));
+            }
+        } else {
+            decodeDelta(in, baseline, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rebuilds a snapshot from its baseline and a delta
+     * @param in the buffer holding the delta
+     * @param baseline the snapshot the delta is against
+     * @param snapshot the snapshot to fill
+     * @throws IOException if the delta is corrupt
+     */
+    private static void decodeDelta(ByteBuffer in, Snapshot baseline,
+            Snapshot snapshot) throws IOException {
+        int ticks = snapshot.getSequence() - baseline.getSequence();
+
+        //carry every entity over, moved on by its velocity, so each keeps
+        //its index from the baseline
+        for (int j = 0; j < baseline.size(); j++) {
+            int i = snapshot.copy(baseline, j);
+            snapshot.x[i] = Snapshot.predict(snapshot.x[i], snapshot.vx[i], ticks);
+            snapshot.y[i] = Snapshot.predict(snapshot.y[i], snapshot.vy[i], ticks);
+        }
+
+        //entities that have gone
+        int count = in.getInt();
+        int j = -1;
+        for (int n = 0; n < count; n++) {
+            j = nextIndex(in, j, baseline);
+            snapshot.type[j] = 0;
+        }
+
+        //entities that have changed
+        count = in.getInt();
+        j = -1;
+        for (int n = 0; n < count; n++) {
+            j = nextIndex(in, j, baseline);
+            if (snapshot.type[j] == 0) {
+                throw new IOException("Change to a despawned entity");
+            }
+            int mask = in.get();
+            if ((mask & MASK_VELOCITY) != 0) {
+                snapshot.vx[j] = in.getShort();
+                snapshot.vy[j] = in.getShort();
+            } else if ((mask & MASK_VELOCITY_NUDGE) != 0) {
+                snapshot.vx[j] += in.get();
+                snapshot.vy[j] += in.get();
+            }
+            if ((mask & MASK_POSITION) != 0) {
+                snapshot.x[j] = in.getShort() & 0xFFFF;
+                snapshot.y[j] = in.getShort() & 0xFFFF;
+            } else {
+                //predict from the new velocity as the encoder did
+                snapshot.x[j] = Snapshot.predict(baseline.x[j], snapshot.vx[j], ticks);
+                snapshot.y[j] = Snapshot.predict(baseline.y[j], snapshot.vy[j], ticks);
+                if ((mask & MASK_NUDGE) != 0) {
+                    snapshot.x[j] += in.get();
+                    snapshot.y[j] += in.get();
+                }
+            }
+            if ((mask & MASK_HEADING) != 0) {
+                snapshot.heading[j] = in.getShort() & 0xFFFF;
+            }
+            if ((mask & MASK_STATE) != 0) {
+                decodeState(in, snapshot, j);
+            }
+        }
+
+        snapshot.removeDespawned();
+
+        //entities that are new
+        count = in.getInt();
+        for (int n = 0; n < count; n++) {
+            decodeEntity(in, snapshot, getVarlong(in));
+        }
+
+        //new entities may have older ids than some carried over
+        snapshot.sortByID();
+    }
+
+    /**
+     * Reads the gap to the next baseline index in a delta
+     * @param in the buffer to read from
+     * @param previous the previous index, -1 for none
+     * @param baseline the snapshot the delta is against
+     * @return the next index
+     * @throws IOException if the index is outside the baseline
+     */
+    private static int nextIndex(ByteBuffer in, int previous,
+            Snapshot baseline) throws IOException {
+        int j = previous + 1 + getVarint(in);
+        if (j <= previous || j >= baseline.size()) {
+            throw new IOException("Delta refers to an unknown entity");
+        }
+        return j;
+    }
+
+    /**
+     * Reads the full record of a single entity and appends it to a snapshot
+     * @param in the buffer to read from
+     * @param snapshot the snapshot to append to
+     * @param id the id of the entity, already read
+     * @throws IOException if the record is of an unknown type
+     */
+    private static void decodeEntity(ByteBuffer in, Snapshot snapshot, long id)
+            throws IOException {
+        int type = in.get();
+        int i = snapshot.add(id, type);
+        snapshot.x[i] = in.getShort() & 0xFFFF;
+        snapshot.y[i] = in.getShort() & 0xFFFF;
+
+        switch (type) {
+            case SpaceMass.TYPE_STAR:
+                snapshot.radius[i] = in.get() & 0xFF;
+                snapshot.heading[i] = in.getShort() & 0xFFFF;
+                break;
+            case SpaceMass.TYPE_MISSILE:
+                snapshot.vx[i] = in.getShort();
+                snapshot.vy[i] = in.getShort();
+                break;
+            case SpaceMass.TYPE_SPACECRAFT:
+            case SpaceMass.TYPE_DEBRIS:
+                snapshot.heading[i] = in.getShort() & 0xFFFF;
+                snapshot.vx[i] = in.getShort();
+                snapshot.vy[i] = in.getShort();
+                decodeState(in, snapshot, i);
+                if (type == SpaceMass.TYPE_DEBRIS) {
+                    snapshot.debrisID[i] = getVarlong(in);
+                }
+                break;
+            default:
+                throw new IOException("Unknown entity type " + type);
+        }
+    }
+
+    /**
+     * Reads the type specific state of an entity that can change over time
+     * @param in the buffer to read from
+     * @param snapshot the snapshot holding the entity
+     * @param i the index of the entity
+     */
+    private static void decodeState(ByteBuffer in, Snapshot snapshot, int i) {
+        if (snapshot.type[i] == SpaceMass.TYPE_SPACECRAFT) {
+            snapshot.shields[i] = in.get();
+            snapshot.fuel[i] = in.getShort() & 0xFFFF;
+            snapshot.missilesLeft[i] = in.get();
+        } else if (snapshot.type[i] == SpaceMass.TYPE_DEBRIS) {
+            snapshot.tumble[i] = in.getShort() & 0xFFFF;
+            snapshot.explosion[i] = in.get();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package common;
+
+/**
+ * A ring of the most recent snapshots, indexed by sequence number. The
+ * server keeps one per player holding the snapshots it has sent, and the
+ * client keeps one holding the snapshots it has received, so either side can
+ * find the baseline a delta was encoded against.
+ * @author kjb146 and zjt14
+ */
+public class SnapshotHistory {
+
+    //number of snapshots kept by default, the server only encodes deltas
+    //against these
+    public static final int SIZE = 32;
+
+    //the snapshots, reused as the sequence numbers wrap around the ring
+    private final Snapshot[] ring;
+
+    /**
+     * Constructor, creates every snapshot in the ring up front
+     */
+    public SnapshotHistory() {
+        this(SIZE);
+    }
+
+    /**
+     * Constructor for a smaller history, for clients that acknowledge every
+     * snapshot promptly and so never need old baselines
+     * @param size the number of snapshots to keep, at most SIZE
+     */
+    public SnapshotHistory(int size) {
+        ring = new Snapshot[Math.max(1, Math.min(SIZE, size))];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Snapshot();
+        }
+    }
+
+    /**
+     * @return the number of snapshots kept
+     */
+    public int size() {
+        return ring.length;
+    }
+
+    /**
+     * Gets the snapshot a sequence number is to be stored in, replacing
+     * whatever it held before
+     * @param sequence the sequence number about to be stored
+     * @return the snapshot to refill
+     */
+    public Snapshot slot(int sequence) {
+        Snapshot snapshot = ring[index(sequence)];
+        snapshot.invalidate();
+        return snapshot;
+    }
+
+    /**
+     * Finds a stored snapshot
+     * @param sequence the sequence number of the snapshot
+     * @return the snapshot, or null if it is no longer (or never was) stored
+     */
+    public Snapshot get(int sequence) {
+        if (sequence < 0) {
+            return null;
+        }
+        Snapshot snapshot = ring[index(sequence)];
+        return (snapshot.getSequence() == sequence) ? snapshot : null;
+    }
+
+    /**
+     * Forgets every stored snapshot
+     */
+    public void clear() {
+        for (Snapshot snapshot : ring) {
+            snapshot.invalidate();
+        }
+    }
+
+    /**
+     * @param sequence a sequence number
+     * @return the position of the sequence number in the ring
+     */
+    private int index(int sequence) {
+        return (sequence & Integer.MAX_VALUE) % ring.length;
+    }
+}
@@ -1,28 +1,42 @@
 package common;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
 /**
  * The basic entity on which all objects in the game universe are based each
- * SpaceMass has a location, velocity, alive status and gravity_constant
+ * SpaceMass has a location, velocity, alive status and gravity_constant.
+ * While a SpaceMass is in a galaxy its kinematic state lives in the galaxy's
+ * EntityStore and the SpaceMass acts as a handle onto it; otherwise the state
+ * is held in the SpaceMass itself.
  * @author kjb146 and zjt14 (largely based on code by Dr. Allan McInnes)
  */
 public abstract class SpaceMass implements Serializable{
 
-    //a unique id by which spaceMasses may be destingished
-    public final int id = this.hashCode();
+    //Type codes identifying each kind of SpaceMass
+    public static final int TYPE_STAR = 1;
+    public static final int TYPE_SPACECRAFT = 2;
+    public static final int TYPE_MISSILE = 3;
+    public static final int TYPE_DEBRIS = 4;
+
+    //the id the next spaceMass created will be given
+    private static final AtomicLong nextID = new AtomicLong(1);
+    //a unique id by which spaceMasses may be destingished, never reused
+    public final long id = nextID.getAndIncrement();
 
     // Default values for position and velocity vectors and heading
     private static final double DEFAULT_HEADING = Math.toRadians(0.0);
     private static final double DEFAULT_G = 0.0;
 
     // Current velocity in the game-space
-    private Vector2d velocity = new Vector2d();
+    private final Vector2d velocity = new Vector2d();
 
     // Current location in galaxy
-    private Point2d location = new Point2d();
+    private final Point2d location = new Point2d();
 
     // Radius of craft (used in hit detection)
     private int radius;
@@ -36,7 +50,13 @@ public abstract class SpaceMass implements Serializable{
 
     // True if the object is still active
     private boolean alive = true;
-    
+
+    // The store holding the kinematic state while in a galaxy (null if none)
+    private transient EntityStore store;
+
+    // The slot in the store holding this SpaceMass' state
+    private transient int slot;
+
     /**
      * Creates an SpaceMass at the specified position, velocity and radius
      * @param radius the SpaceMass radius
@@ -50,13 +70,31 @@ public abstract class SpaceMass implements Serializable{
     }
 
     /**
-     * Updates the position based on the current velocity.
+     * @return the type code of this kind of SpaceMass
+     */
+    public abstract int getType();
+
+    /**
+     * Updates the position based on the current velocity, then updates any
+     * other state that changes over time.
      */
     public void stepTime() {
-        
-        Point2d moveTo = getLocation();
-        moveTo.add(velocity);
-        setLocation(moveTo); // Assumes uniform timestep
+        move();
+        stepState();
+    }
+
+    /**
+     * Updates the position based on the current velocity.
+     */
+    protected final void move() {
+        moveTo(getX() + getVelocityX(), getY() + getVelocityY()); // Assumes uniform timestep
+    }
+
+    /**
+     * Updates any state other than position that changes over time. Called
+     * by the galaxy after it has moved all of its SpaceMasses.
+     */
+    protected void stepState() {
     }
 
     /**
@@ -64,7 +102,23 @@ public abstract class SpaceMass implements Serializable{
      * @param deltaV the change in velocity
      */
     public void accelerate(Vector2d deltaV) {
-        velocity.add(deltaV);       
+        accelerate(deltaV.x, deltaV.y);
+    }
+
+    /**
+     * Modifies the object velocity by the given components without creating
+     * a vector
+     * @param deltaX the change in x velocity
+     * @param deltaY the change in y velocity
+     */
+    public void accelerate(double deltaX, double deltaY) {
+        if (store != null) {
+            store.vx[slot] += deltaX;
+            store.vy[slot] += deltaY;
+        } else {
+            velocity.x += deltaX;
+            velocity.y += deltaY;
+        }
     }
 
     /**
@@ -73,11 +127,11 @@ public abstract class SpaceMass implements Serializable{
      * @param magnitude size of the change in velocity
      */
     public void accelerate(double magnitude) {
-        velocity.add(new Vector2d(magnitude*Math.cos(angle),
-                                  magnitude*Math.sin(angle)));
+        double heading = getHeading();
+        accelerate(magnitude*Math.cos(heading), magnitude*Math.sin(heading));
     }
-   
-      
+
+
     /**
      * Sets the position to the specified location relative to 0,0.
      * The position is specified as a Cartesian vector, and is internally
@@ -85,21 +139,42 @@ public abstract class SpaceMass implements Serializable{
      * @param newPos vector specifying the new position
      */
     public void setLocation(Point2d newPos) {
-        
-        if((newPos.x + radius) > Galaxy.SIZE.width){
-            newPos.x = radius;
-        }
-        if((newPos.y + radius) > Galaxy.SIZE.height){
-            newPos.y = radius;
+        moveTo(newPos.x, newPos.y);
+    }
+
+    /**
+     * Sets the position, wrapping it back into the galaxy if it has left it
+     * @param x the new x position
+     * @param y the new y position
+     */
+    private void moveTo(double x, double y) {
+        x = wrap(x, radius, Galaxy.SIZE.width);
+        y = wrap(y, radius, Galaxy.SIZE.height);
+        if (store != null) {
+            store.x[slot] = x;
+            store.y[slot] = y;
+        } else {
+            location.x = x;
+            location.y = y;
         }
-        if((newPos.x - radius) < 0){
-            newPos.x = Galaxy.SIZE.width - radius;
+    }
+
+    /**
+     * Utility method used to wrap one coordinate of an object that has left
+     * the galaxy back onto the opposite edge
+     * @param position the coordinate
+     * @param radius the radius of the object
+     * @param size the size of the galaxy along the coordinate's axis
+     * @return the coordinate, wrapped back into the galaxy
+     */
+    static double wrap(double position, int radius, int size) {
+        if ((position + radius) > size) {
+            position = radius;
         }
-        if((newPos.y - radius) < 0){
-            newPos.y = Galaxy.SIZE.height - radius;
+        if ((position - radius) < 0) {
+            position = size - radius;
         }
-        
-        location = newPos;
+        return position;
     }
 
     /**
@@ -108,7 +183,7 @@ public abstract class SpaceMass implements Serializable{
      * @param turnAngle change in angle, in radians
      */
     public void rotate(double turnAngle) {
-        angle = angleWraparound(angle + turnAngle);
+        setHeading(angleWraparound(getHeading() + turnAngle));
     }
 
     /**
@@ -125,26 +200,23 @@ public abstract class SpaceMass implements Serializable{
      */
     public void gravitate(SpaceMass other) {
         // Find the spatial vector between this and the other object
-        Vector2d grav_vector = new Vector2d(this.getLocation());
-        grav_vector.sub(other.getLocation());
+        double dx = getX() - other.getX();
+        double dy = getY() - other.getY();
 
         // Compute the acceleration magnitudes for each object as a
         // function of gravity constant (which is sort of a proxy
         // for relative mass).
-        double r2 = grav_vector.lengthSquared();
+        double r2 = dx*dx + dy*dy;
         double my_accel = -(other.getGravityConstant()/r2);
         double other_accel = this.getGravityConstant()/r2;
 
         // Convert the gravity vector into a pure direction, and then
         // scale to produce accelerations
-        grav_vector.normalize();
-        Vector2d my_accel_vector = new Vector2d(grav_vector);
-        my_accel_vector.scale(my_accel);
-        accelerate(my_accel_vector);
-
-        Vector2d other_accel_vector = new Vector2d(grav_vector);
-        other_accel_vector.scale(other_accel);
-        other.accelerate(other_accel_vector);
+        double r = Math.sqrt(r2);
+        dx /= r;
+        dy /= r;
+        accelerate(dx*my_accel, dy*my_accel);
+        other.accelerate(dx*other_accel, dy*other_accel);
     }
 
     /**
@@ -185,26 +257,112 @@ public abstract class SpaceMass implements Serializable{
         }
         return theta;
     }
-    
+
+    /**
+     * Moves the kinematic state of this SpaceMass into a slot of a store
+     * @param store the store to move into
+     * @param slot the slot to use
+     */
+    void attach(EntityStore store, int slot) {
+        store.x[slot] = location.x;
+        store.y[slot] = location.y;
+        store.vx[slot] = velocity.x;
+        store.vy[slot] = velocity.y;
+        store.heading[slot] = angle;
+        store.gravity[slot] = gravity_constant;
+        store.radius[slot] = radius;
+        store.type[slot] = getType();
+        store.id[slot] = id;
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Moves the kinematic state of this SpaceMass back out of its store
+     */
+    void detach() {
+        sync();
+        store = null;
+    }
+
+    /**
+     * Copies the kinematic state held in the store back into this SpaceMass
+     */
+    private void sync() {
+        if (store != null) {
+            location.x = store.x[slot];
+            location.y = store.y[slot];
+            velocity.x = store.vx[slot];
+            velocity.y = store.vy[slot];
+            angle = store.heading[slot];
+        }
+    }
+
+    /**
+     * @return true if this SpaceMass is held in a store
+     */
+    boolean isAttached() {
+        return store != null;
+    }
+
+    /**
+     * @param store a store
+     * @return true if this SpaceMass is held in the given store
+     */
+    boolean isAttachedTo(EntityStore store) {
+        return this.store == store;
+    }
+
+    /**
+     * @return the slot holding this SpaceMass' state in its store
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Ensures the state held in the store is what gets serialized
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        sync();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return returns the unique ID of this SpaceMass
      */
-    public int getID(){
+    public long getID(){
         return id;
     }
-    
+
     /**
-     * @return the radius of this SpaceMass 
+     * @return the radius of this SpaceMass
      */
     public int getRadius(){
         return radius;
     }
-    
+
     /**
      * @return the current velocity as a Cartesian vector
      */
     public Point2d getLocation() {
-        return new Point2d(location);
+        return new Point2d(getX(), getY());
+    }
+
+    /**
+     * @return the current x location, without copying the location
+     */
+    public double getX() {
+        return (store != null) ? store.x[slot] : location.x;
+    }
+
+    /**
+     * @return the current y location, without copying the location
+     */
+    public double getY() {
+        return (store != null) ? store.y[slot] : location.y;
     }
 
     /**
@@ -212,31 +370,54 @@ public abstract class SpaceMass implements Serializable{
      * @param newV vector specifying the new velocity
      */
     public void setVelocity(Vector2d newV) {
-        velocity = new Vector2d(newV);
+        if (store != null) {
+            store.vx[slot] = newV.x;
+            store.vy[slot] = newV.y;
+        } else {
+            velocity.set(newV);
+        }
     }
 
     /**
      * @return the current velocity as a Cartesian vector
      */
     public Vector2d getVelocity() {
-        return new Vector2d(velocity);
+        return new Vector2d(getVelocityX(), getVelocityY());
+    }
+
+    /**
+     * @return the current x velocity, without copying the velocity
+     */
+    public double getVelocityX() {
+        return (store != null) ? store.vx[slot] : velocity.x;
     }
-    
+
+    /**
+     * @return the current y velocity, without copying the velocity
+     */
+    public double getVelocityY() {
+        return (store != null) ? store.vy[slot] : velocity.y;
+    }
+
     /**
      * Sets the direction the SpaceMass is facing
      * @param angle the angle to were the SpaceMass is facing in radians
      */
     public void setHeading(double angle) {
-        this.angle = angle;
+        if (store != null) {
+            store.heading[slot] = angle;
+        } else {
+            this.angle = angle;
+        }
     }
-    
+
     /**
      * @return the current heading angle in radians
      */
     public double getHeading() {
-        return angle;
+        return (store != null) ? store.heading[slot] : angle;
     }
-    
+
     /**
      * @return the current gravity constant
      */
@@ -250,5 +431,8 @@ public abstract class SpaceMass implements Serializable{
      */
     public void setGravityConstant(double G) {
         gravity_constant = G;
+        if (store != null) {
+            store.gravity[slot] = G;
+        }
     }
 }
@@ -16,10 +16,10 @@ public class Spacecraft extends SpaceMass {
     public static final int SPACECRAFT_R = 40;
     //Maximum velocity of the Spacecraft
     private static final double MAX_VELOCITY = 20;
-    //Period of firerate (Milliseconds)
-    private static final int FIRE_RATE = 200;
-    //Period of hyperspace (Milliseconds)
-    private static final int HYPERSPACE_RATE = 1000;
+    //Period of firerate (time-steps, 200ms on the server)
+    private static final int FIRE_RATE = 4;
+    //Period of hyperspace (time-steps, 1s on the server)
+    private static final int HYPERSPACE_RATE = 20;
     // delta-V provided by one thrust command
     private static final double IMPULSE = 2.0;
     // Change in orientation provided by one rotate command
@@ -36,30 +36,44 @@ public class Spacecraft extends SpaceMass {
     private static final Point2d DEFAULT_POSITION = new Point2d(0,0);
     
     
-    //Time since Missile last fired
-    private long coolDownMissile = System.currentTimeMillis();
-    //Time since last hyperspace jump
-    private long coolDownHyperspace = System.currentTimeMillis();
+    //Time-steps until a missile can be fired
+    private int coolDownMissile;
+    //Time-steps until the next hyperspace jump can be made
+    private int coolDownHyperspace;
     // Number of hits the spacecraft can take
     private int shields;
     // Fuel spacecraft has to burn manovering
     private int fuel;
     // Number of missiles left to shoot
     private int missilesLeft;
+    // Client tick of the last input applied to the spacecraft
+    private int lastInput = 0;
+    // Buttons the player holds, applied every time-step until the next input
+    private int held = 0;
+    // Buttons of the inputs since the last time-step combined, so a button
+    // pressed and released between time-steps still acts once
+    private int pending = 0;
+    private boolean commanded = false;
 
     /**
-     * Constructor creates a Spacecraft with default speed and position
+     * Constructor creates a Spacecraft with default speed and position,
+     * which can neither fire nor jump until its cooldowns have run
      */
     public Spacecraft(){
         super(SPACECRAFT_R, DEFAULT_POSITION, DEFAULT_SPEED);
         reset();
+        coolDownHyperspace = HYPERSPACE_RATE;
     }
 
     /**
-     * Resets the shields, fuel, missiles, speed and location to the 
-     * default starting values
+     * Resets the shields, fuel, missiles, speed and location to the
+     * default starting values. The missile cooldown starts again, and the
+     * hyperspace cooldown is cleared so a restarted ship can jump back in,
+     * which starts it again.
      */
     public final void reset(){
+        coolDownMissile = FIRE_RATE;
+        coolDownHyperspace = 0;
         shields = DEFAULT_SHIELDS;
         fuel = DEFAULT_FUEL;
         missilesLeft = DEFAULT_MISSLE_COUNT;
@@ -67,6 +81,27 @@ public class Spacecraft extends SpaceMass {
         setLocation(DEFAULT_POSITION );
     }
 
+    /**
+     * @return the type code for spacecraft
+     */
+    @Override
+    public int getType() {
+        return TYPE_SPACECRAFT;
+    }
+
+    /**
+     * Counts down the missile and hyperspace cooldowns by one time-step
+     */
+    @Override
+    protected void stepState() {
+        if (coolDownMissile > 0) {
+            --coolDownMissile;
+        }
+        if (coolDownHyperspace > 0) {
+            --coolDownHyperspace;
+        }
+    }
+
     /**
      * @return true if the ships shields are at <= 0, false otherwise
      */
@@ -132,10 +167,9 @@ public class Spacecraft extends SpaceMass {
      */
     public void fire(Galaxy galaxy) {
         //if cooldown has expired
-        if (((System.currentTimeMillis() - coolDownMissile) > FIRE_RATE)
-                && (missilesLeft > 0)) {
+        if ((coolDownMissile == 0) && (missilesLeft > 0)) {
             
-            coolDownMissile = System.currentTimeMillis();
+            coolDownMissile = FIRE_RATE;
             
             galaxy.addSpaceMass(new Missile(
                     this.getLocation(),
@@ -153,9 +187,8 @@ public class Spacecraft extends SpaceMass {
     public boolean hyperspace() {
         boolean rtn = false;
         //if cooldown has expired
-        if (((System.currentTimeMillis() - coolDownHyperspace) > HYPERSPACE_RATE)
-                && (fuel >= 100)) {
-            coolDownHyperspace = System.currentTimeMillis();
+        if ((coolDownHyperspace == 0) && (fuel >= 100)) {
+            coolDownHyperspace = HYPERSPACE_RATE;
             fuel -= 100;
             rtn = true;
         }
@@ -176,6 +209,56 @@ public class Spacecraft extends SpaceMass {
         return shields;
     }
 
+    /**
+     * Sets the fuel left, e.g. to match a snapshot
+     * @param fuel the fuel left
+     */
+    void setFuel(int fuel) {
+        this.fuel = fuel;
+    }
+
+    /**
+     * @return the client tick of the last input applied to the spacecraft,
+     * counting on by one every time-step it stays held, 0 if the client
+     * gave none
+     */
+    public int getLastInput() {
+        return lastInput;
+    }
+
+    /**
+     * Records an input from the player, held until the next one
+     * @param buttons the buttons held, as InputCommand bits
+     * @param clientTick the client tick the input was made on, 0 if none
+     */
+    void command(int buttons, int clientTick) {
+        held = buttons;
+        pending |= buttons;
+        commanded = true;
+        if (clientTick != 0) {
+            lastInput = clientTick;
+        }
+    }
+
+    /**
+     * Takes the buttons to act on this time-step: those of the inputs since
+     * the last time-step, or the buttons still held if there were none
+     * @return the buttons, as InputCommand bits
+     */
+    int nextButtons() {
+        if (commanded) {
+            commanded = false;
+            int buttons = pending;
+            pending = 0;
+            return buttons;
+        }
+        if (lastInput != 0) {
+            //the client made another tick of the same input
+            lastInput++;
+        }
+        return held;
+    }
+
     /*
      * @return number of missiles left in Spacecraft
      */
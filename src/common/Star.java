@@ -22,6 +22,14 @@ public class Star extends SpaceMass {
         this.setGravityConstant(G);
     }
 
+    /**
+     * @return the type code for stars
+     */
+    @Override
+    public int getType() {
+        return TYPE_STAR;
+    }
+
     /**
      * stars cannot be destroyed
      */
@@ -50,7 +58,15 @@ public class Star extends SpaceMass {
         // each other. This is easily achieved by inserting a call to
         // super.stepTime() here.
         
+        stepState();
+    }
+
+    /**
+     * stars revolve
+     */
+    @Override
+    protected void stepState() {
         this.rotate(Math.PI/40.0);
-    }    
+    }
 }
 
@@ -0,0 +1,99 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast pseudo random number generator (xorshift64*). The whole
+ * state is one long, nothing is allocated per number, and the same seed
+ * always gives the same numbers, so anything built from it can be rebuilt
+ * exactly. Not thread safe; each user keeps its own.
+ * @author kjb146 and zjt14
+ */
+public class XorShiftRandom {
+
+    //makes unseeded generators created at the same moment differ
+    private static final AtomicLong seedUniquifier = new AtomicLong(0x5DEECE66DL);
+
+    //the seed the generator was created with
+    private final long seed;
+    //the current state, never zero
+    private long state;
+
+    /**
+     * Creates a generator with a seed that differs from every other
+     * generator's, for when reproducing the numbers is not wanted
+     */
+    public XorShiftRandom() {
+        this(newSeed());
+    }
+
+    /**
+     * Creates a generator giving the same numbers as any other with the
+     * same seed
+     * @param seed the seed
+     */
+    public XorShiftRandom(long seed) {
+        this.seed = seed;
+        //spread the seed's bits so similar seeds give unrelated numbers
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        state = (z == 0) ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    /**
+     * @return a seed unlikely to have been used before
+     */
+    public static long newSeed() {
+        return seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime();
+    }
+
+    /**
+     * @return the seed the generator was created with
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the next random long, any value
+     */
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * @param bound the upper limit, must be positive
+     * @return the next random int from 0 (inclusive) to bound (exclusive)
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * @return the next random float from 0 (inclusive) to 1 (exclusive)
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * @return the next random double from 0 (inclusive) to 1 (exclusive)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return the next random boolean
+     */
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+}